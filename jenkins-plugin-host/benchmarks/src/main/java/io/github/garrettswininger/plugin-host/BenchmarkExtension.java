@@ -0,0 +1,6 @@
+package io.github.garrettswininger.pluginhost;
+
+import hudson.ExtensionPoint;
+
+/** Extension point implemented by the plugins in generated benchmark JARs. */
+public interface BenchmarkExtension extends ExtensionPoint {}
@@ -0,0 +1,78 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Rate at which the scheduler absorbs a storm of events for paths that already have a pending
+ * event, which is the common case while a large JAR is being copied.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CoalescingBenchmark {
+  @State(Scope.Benchmark)
+  public static class Pending {
+    @Param({"1000", "100000"})
+    public int paths;
+
+    Path[] candidates;
+
+    AutoloadScheduler scheduler;
+
+    @Setup(Level.Trial)
+    public void setup() {
+      // NOTE(garrett): Nothing settles during a trial, so every submission
+      // after the first for a path is coalesced into the pending event
+      final var never = TimeUnit.DAYS.toNanos(1);
+
+      this.scheduler = new AutoloadScheduler(never, never);
+      this.candidates = new Path[this.paths];
+
+      for (var i = 0; i < this.paths; i++) {
+        this.candidates[i] = Path.of("autoload", String.format("plugin-%d.jar", i));
+        this.scheduler.submit(this.candidates[i], AutoloadEventAction.REGISTER);
+      }
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Cursor {
+    int next;
+  }
+
+  @Benchmark
+  @Threads(1)
+  public boolean coalesce(Pending pending, Cursor cursor) {
+    return submit(pending, cursor);
+  }
+
+  @Benchmark
+  @Threads(4)
+  public boolean coalesceContended(Pending pending, Cursor cursor) {
+    return submit(pending, cursor);
+  }
+
+  private static boolean submit(Pending pending, Cursor cursor) {
+    final var path = pending.candidates[cursor.next];
+
+    cursor.next = (cursor.next + 1) % pending.candidates.length;
+
+    return pending.scheduler.submit(path, AutoloadEventAction.RELOAD);
+  }
+}
@@ -0,0 +1,86 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Cost of fingerprinting a hosted JAR, with and without the MD5 digest, and of revalidating. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class DigestBenchmark {
+  @Param({"1048576", "16777216", "134217728"})
+  public long jarBytes;
+
+  private Path directory;
+
+  private Path jar;
+
+  private BasicFileAttributes attributes;
+
+  private JarFingerprint fingerprint;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    this.directory = Files.createTempDirectory("digest-benchmark");
+    this.jar = SyntheticJars.create(this.directory, "digest", 100, 1, this.jarBytes, true);
+    this.attributes = Files.readAttributes(this.jar, BasicFileAttributes.class);
+    this.fingerprint = JarFingerprint.of(this.jar, this.attributes, null);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    SyntheticJars.deleteRecursively(this.directory);
+  }
+
+  @Benchmark
+  public long checksumOnly() throws IOException {
+    return JarFingerprint.of(this.jar, this.attributes, null).contentHash();
+  }
+
+  @Benchmark
+  public byte[] checksumAndDigest() throws IOException, NoSuchAlgorithmException {
+    final var digest = MessageDigest.getInstance("MD5");
+
+    JarFingerprint.of(this.jar, this.attributes, digest);
+
+    return digest.digest();
+  }
+
+  @Benchmark
+  public byte[] readImageAndDigest() throws IOException, NoSuchAlgorithmException {
+    final var digest = MessageDigest.getInstance("MD5");
+
+    JarFingerprint.of(JarImage.read(this.jar), digest);
+
+    return digest.digest();
+  }
+
+  @Benchmark
+  public boolean revalidateUnchanged() throws IOException {
+    final Optional<?> current = this.fingerprint.revalidate(this.jar);
+
+    return current.isPresent();
+  }
+}
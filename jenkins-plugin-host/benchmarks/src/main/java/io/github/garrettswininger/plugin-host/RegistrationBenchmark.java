@@ -0,0 +1,92 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full register and deregister cycle for a single JAR, covering digest, scan, class loading,
+ * instantiation and extension list insertion against stub lists. With {@code retained}, every
+ * registration after the first reinstates the registration kept from the previous cycle. The
+ * registration cache is kept in memory, so no iteration writes to disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class RegistrationBenchmark {
+  // NOTE(garrett): Held strongly so the level isn't lost when the logger is
+  // collected, the per-extension INFO lines would otherwise dominate
+  private static final Logger HOST_LOGGER = Logger.getLogger("io.github.garrettswininger");
+
+  @Param({"100", "1000"})
+  public int classes;
+
+  @Param({"1", "10"})
+  public int plugins;
+
+  @Param({"false", "true"})
+  public boolean indexed;
+
+  @Param({"false", "true"})
+  public boolean retained;
+
+  private Path directory;
+
+  private Path jar;
+
+  private AutoloadRegistry registry;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    HOST_LOGGER.setLevel(java.util.logging.Level.WARNING);
+
+    this.directory = Files.createTempDirectory("registration-benchmark");
+    this.jar =
+        SyntheticJars.create(
+            this.directory, "registration", this.classes, this.plugins, 0, this.indexed);
+
+    // NOTE(garrett): The cache stays in memory, writing it to disk on every
+    // registration would make this measure the file system instead
+    this.registry =
+        AutoloadRegistry.standalone(
+            this.directory,
+            new StubExtensionLists(),
+            AutoloadRegistry.Settings.DEFAULTS
+                .withRetainedCapacity(this.retained ? 1 : 0)
+                .withoutPersistentCache());
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    SyntheticJars.deleteRecursively(this.directory);
+  }
+
+  @Benchmark
+  public int registerAndDeregister() {
+    this.registry.register(this.jar);
+
+    final var registered = this.registry.getRegistrations().size();
+
+    this.registry.deregister(this.jar);
+
+    return registered;
+  }
+}
@@ -0,0 +1,95 @@
+package io.github.garrettswininger.pluginhost;
+
+import io.github.garrettswininger.hosting.Hosted;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Cost of finding plugin candidates in a JAR through the index, through the bytecode scanner, and
+ * by loading every class as the host originally did.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ScanBenchmark {
+  @Param({"100", "1000", "5000"})
+  public int classes;
+
+  @Param({"1", "10"})
+  public int plugins;
+
+  private Path directory;
+
+  private Path unindexed;
+
+  private JarImage indexedJar;
+
+  private JarImage unindexedJar;
+
+  private List<String> classNames;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    this.directory = Files.createTempDirectory("scan-benchmark");
+    this.unindexed =
+        SyntheticJars.create(this.directory, "unindexed", this.classes, this.plugins, 0, false);
+    this.indexedJar =
+        JarImage.read(
+            SyntheticJars.create(this.directory, "indexed", this.classes, this.plugins, 0, true));
+    this.unindexedJar = JarImage.read(this.unindexed);
+    this.classNames = SyntheticJars.classNames(this.classes, this.plugins);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    SyntheticJars.deleteRecursively(this.directory);
+  }
+
+  @Benchmark
+  public List<String> index() throws IOException {
+    return AutoloadRegistry.listCandidateClasses(this.indexedJar);
+  }
+
+  @Benchmark
+  public List<String> bytecodeScan() throws IOException {
+    return HostedClassScanner.scan(this.unindexedJar);
+  }
+
+  @Benchmark
+  public int loadEveryClass() throws IOException, ClassNotFoundException {
+    var found = 0;
+
+    try (final var loader =
+        new URLClassLoader(
+            new URL[] {this.unindexed.toUri().toURL()}, this.getClass().getClassLoader())) {
+      for (final var className : this.classNames) {
+        if (loader.loadClass(className).isAnnotationPresent(Hosted.class)) {
+          found++;
+        }
+      }
+    }
+
+    return found;
+  }
+}
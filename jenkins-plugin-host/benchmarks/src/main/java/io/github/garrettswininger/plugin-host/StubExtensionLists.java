@@ -0,0 +1,76 @@
+package io.github.garrettswininger.pluginhost;
+
+import hudson.ExtensionComponent;
+import hudson.ExtensionComponentSet;
+import hudson.ExtensionList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stands in for the Jenkins extension lists during benchmarks, keeping the same copy and sort per
+ * refresh without needing a running controller.
+ */
+final class StubExtensionLists implements ExtensionListBatch.Lookup {
+  private final Map<Class<?>, ExtensionList<?>> lists = new ConcurrentHashMap<>();
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public <T> ExtensionList<T> get(Class<T> extensionType) {
+    return (ExtensionList<T>)
+        this.lists.computeIfAbsent(extensionType, key -> new StubExtensionList<>(extensionType));
+  }
+
+  private static final class StubExtensionList<T> extends ExtensionList<T> {
+    private volatile List<ExtensionComponent<T>> components = List.of();
+
+    StubExtensionList(Class<T> extensionType) {
+      super(null, extensionType);
+    }
+
+    @Override
+    public List<ExtensionComponent<T>> getComponents() {
+      return this.components;
+    }
+
+    @Override
+    public synchronized void refresh(ExtensionComponentSet delta) {
+      final List<ExtensionComponent<T>> updated = new ArrayList<>(this.components);
+
+      updated.addAll(delta.find(this.extensionType));
+      Collections.sort(updated);
+
+      this.components = Collections.unmodifiableList(updated);
+    }
+
+    @Override
+    public synchronized boolean removeAll(Collection<?> instances) {
+      final List<ExtensionComponent<T>> updated = new ArrayList<>(this.components);
+      final var removed =
+          updated.removeIf(component -> instances.contains(component.getInstance()));
+
+      this.components = Collections.unmodifiableList(updated);
+
+      return removed;
+    }
+
+    @Override
+    public T get(int index) {
+      return this.components.get(index).getInstance();
+    }
+
+    @Override
+    public int size() {
+      return this.components.size();
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+      return this.components.stream().map(ExtensionComponent::getInstance).iterator();
+    }
+  }
+}
@@ -0,0 +1,179 @@
+package io.github.garrettswininger.pluginhost;
+
+import io.github.garrettswininger.hosting.HostedProcessor;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import javax.tools.ToolProvider;
+
+/**
+ * Builds hosted JARs for the benchmarks by compiling generated sources, so the class files match
+ * what a real build of a hosted plugin would produce.
+ */
+final class SyntheticJars {
+  private static final String PACKAGE = "synthetic";
+
+  private SyntheticJars() {}
+
+  /**
+   * Creates a JAR with {@code classes} classes in total, {@code plugins} of which are {@code
+   * Hosted} plugins, padded with a stored resource until it is roughly {@code targetBytes} in size.
+   * The plugin index is only generated when {@code indexed} is set.
+   */
+  static Path create(
+      Path directory, String name, int classes, int plugins, long targetBytes, boolean indexed)
+      throws IOException {
+    final var sources = Files.createDirectories(directory.resolve(name + "-sources"));
+    final var compiled = Files.createDirectories(directory.resolve(name + "-classes"));
+    final List<String> arguments = new ArrayList<>();
+
+    arguments.addAll(
+        List.of(
+            "--release",
+            "17",
+            "-classpath",
+            System.getProperty("java.class.path"),
+            "-d",
+            compiled.toString()));
+
+    if (indexed) {
+      arguments.addAll(List.of("-processor", HostedProcessor.class.getName()));
+    } else {
+      arguments.add("-proc:none");
+    }
+
+    for (var i = 0; i < classes; i++) {
+      final var className = i < plugins ? "Plugin" + i : "Filler" + i;
+      final var source = sources.resolve(className + ".java");
+
+      Files.writeString(
+          source,
+          i < plugins ? pluginSource(className) : fillerSource(className, i),
+          StandardCharsets.UTF_8);
+      arguments.add(source.toString());
+    }
+
+    final var compiler = ToolProvider.getSystemJavaCompiler();
+
+    if (compiler.run(null, null, null, arguments.toArray(String[]::new)) != 0) {
+      throw new IOException(String.format("Failed to compile synthetic sources for %s", name));
+    }
+
+    final var jar = directory.resolve(name + ".jar");
+    var written = 0L;
+
+    try (final var stream = new JarOutputStream(Files.newOutputStream(jar));
+        final var files = Files.walk(compiled)) {
+      for (final var file : files.filter(Files::isRegularFile).sorted().toList()) {
+        final var bytes = Files.readAllBytes(file);
+
+        stream.putNextEntry(new JarEntry(compiled.relativize(file).toString().replace('\\', '/')));
+        stream.write(bytes);
+        stream.closeEntry();
+
+        written += bytes.length;
+      }
+
+      // NOTE(garrett): Stored rather than deflated, so the padding counts
+      // towards the file size byte for byte
+      if (targetBytes > written) {
+        final var padding = new byte[(int) Math.min(targetBytes - written, Integer.MAX_VALUE)];
+        new Random(name.hashCode()).nextBytes(padding);
+
+        final var checksum = new CRC32();
+        checksum.update(padding);
+
+        final var entry = new JarEntry(PACKAGE + "/padding.bin");
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(padding.length);
+        entry.setCompressedSize(padding.length);
+        entry.setCrc(checksum.getValue());
+
+        stream.putNextEntry(entry);
+        stream.write(padding);
+        stream.closeEntry();
+      }
+    }
+
+    deleteRecursively(sources);
+    deleteRecursively(compiled);
+
+    return jar;
+  }
+
+  /** Names of every class in a JAR created with the given counts, in entry order. */
+  static List<String> classNames(int classes, int plugins) {
+    final List<String> names = new ArrayList<>();
+
+    for (var i = 0; i < classes; i++) {
+      if (i < plugins) {
+        names.add(String.format("%s.Plugin%d", PACKAGE, i));
+        names.add(String.format("%s.Plugin%d$Implementation", PACKAGE, i));
+      } else {
+        names.add(String.format("%s.Filler%d", PACKAGE, i));
+      }
+    }
+
+    return names;
+  }
+
+  static void deleteRecursively(Path root) {
+    if (!Files.exists(root)) {
+      return;
+    }
+
+    try (final Stream<Path> paths = Files.walk(root)) {
+      for (final var path : paths.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(path);
+      }
+    } catch (IOException ex) {
+      throw new UncheckedIOException(ex);
+    }
+  }
+
+  private static String pluginSource(String className) {
+    return String.format(
+        """
+        package %1$s;
+
+        import io.github.garrettswininger.hosting.DynamicPlugin;
+        import io.github.garrettswininger.hosting.Hosted;
+        import io.github.garrettswininger.pluginhost.BenchmarkExtension;
+
+        @Hosted
+        public class %2$s extends DynamicPlugin<BenchmarkExtension, %2$s.Implementation> {
+          public %2$s() {
+            super(BenchmarkExtension.class, Implementation.class);
+          }
+
+          public static class Implementation implements BenchmarkExtension {}
+        }
+        """,
+        PACKAGE, className);
+  }
+
+  private static String fillerSource(String className, int value) {
+    return String.format(
+        """
+        package %1$s;
+
+        public class %2$s {
+          public int value() {
+            return %3$d;
+          }
+        }
+        """,
+        PACKAGE, className, value);
+  }
+}
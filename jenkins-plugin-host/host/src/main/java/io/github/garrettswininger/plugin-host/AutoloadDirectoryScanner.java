@@ -0,0 +1,120 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Finds changes under the autoload roots by stat calls alone, for file systems where the watch
+ * service misses events. Each scan compares against the previous one and reports only the JARs that
+ * were added, removed or changed.
+ *
+ * <p>Listing a large directory over NFS is far more expensive than stating the files in it, so each
+ * directory is only listed again when its own modification time says entries were added, removed or
+ * renamed. Otherwise only the JARs and subdirectories already known in it are stated.
+ */
+final class AutoloadDirectoryScanner {
+  // NOTE(garrett): Directory timestamps can be as coarse as a couple of
+  // seconds, so a listing taken within this window of the last directory
+  // change could have missed an entry and is not trusted
+  private static final long RACY_WINDOW_MILLIS = 2000L;
+
+  private record Listed(long modified, long listedAt, Set<Path> jars, List<Path> directories) {}
+
+  private final AutoloadRoots roots;
+
+  // NOTE(garrett): Only touched from the polling thread
+  private Map<Path, FileState> known = Map.of();
+
+  private final Map<Path, Listed> listed = new HashMap<>();
+
+  AutoloadDirectoryScanner(AutoloadRoots roots) {
+    this.roots = roots;
+  }
+
+  /**
+   * Stats every directory under the roots and returns the event needed for each JAR that changed
+   * since the last scan. The first scan reports every JAR as new.
+   */
+  SortedMap<Path, AutoloadEventAction> scan() throws IOException {
+    final Map<Path, FileState> current = new HashMap<>();
+    final Set<Path> visited = new HashSet<>();
+    final var pending = new ArrayDeque<>(this.roots.roots());
+
+    while (!pending.isEmpty()) {
+      final var directory = pending.pop();
+
+      try {
+        pending.addAll(this.visit(directory, current));
+      } catch (NoSuchFileException ex) {
+        // NOTE(garrett): A directory that is gone takes its JARs and
+        // subdirectories with it, they simply aren't visited
+        continue;
+      }
+
+      visited.add(directory);
+    }
+
+    this.listed.keySet().retainAll(visited);
+
+    final SortedMap<Path, AutoloadEventAction> actions = new TreeMap<>();
+
+    current.forEach(
+        (path, state) -> {
+          final var earlier = this.known.get(path);
+
+          if (earlier == null) {
+            actions.put(path, AutoloadEventAction.REGISTER);
+          } else if (!earlier.equals(state)) {
+            actions.put(path, AutoloadEventAction.RELOAD);
+          }
+        });
+
+    for (final var path : this.known.keySet()) {
+      if (!current.containsKey(path)) {
+        actions.put(path, AutoloadEventAction.DEREGISTER);
+      }
+    }
+
+    this.known = current;
+
+    return actions;
+  }
+
+  /** Adds the JARs in {@code directory} to {@code current}, returning its subdirectories. */
+  private List<Path> visit(Path directory, Map<Path, FileState> current) throws IOException {
+    final var directoryModified = Files.getLastModifiedTime(directory).toMillis();
+    final var previous = this.listed.get(directory);
+
+    if (previous != null
+        && directoryModified == previous.modified()
+        && directoryModified < previous.listedAt() - RACY_WINDOW_MILLIS) {
+      current.putAll(FileState.restat(previous.jars()));
+
+      return previous.directories();
+    }
+
+    final var now = System.currentTimeMillis();
+    final var listing = FileState.list(directory);
+
+    current.putAll(listing.jars());
+    this.listed.put(
+        directory,
+        new Listed(
+            directoryModified,
+            now,
+            Set.copyOf(listing.jars().keySet()),
+            List.copyOf(listing.directories())));
+
+    return listing.directories();
+  }
+}
@@ -0,0 +1,7 @@
+package io.github.garrettswininger.pluginhost;
+
+enum AutoloadEventAction {
+  REGISTER,
+  DEREGISTER,
+  RELOAD
+}
@@ -0,0 +1,72 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Rebuilds the events lost when the watch service overflows by comparing a snapshot of the autoload
+ * roots with what the registry has registered, so only JARs that actually differ are queued.
+ */
+final class AutoloadReconciler {
+  private final AutoloadRoots roots;
+
+  private final int parallelism;
+
+  // NOTE(garrett): Only touched from the watcher thread, empty until the
+  // first reconciliation so replaced files are only caught from then on
+  private Map<Path, FileState> previous = Map.of();
+
+  AutoloadReconciler(AutoloadRoots roots, int parallelism) {
+    this.roots = roots;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Diffs the roots against the {@code registered} fingerprints and returns the event needed for
+   * each path that is out of sync. A JAR counts as changed when its size or modification time
+   * differs from its registration, or when it was replaced by a different file since the last
+   * snapshot.
+   */
+  SortedMap<Path, AutoloadEventAction> reconcile(SortedMap<Path, JarFingerprint> registered)
+      throws IOException {
+    final var current = this.roots.enumerate(this.parallelism);
+    final SortedMap<Path, AutoloadEventAction> actions = new TreeMap<>();
+
+    current.forEach(
+        (path, state) -> {
+          final var fingerprint = registered.get(path);
+
+          if (fingerprint == null) {
+            actions.put(path, AutoloadEventAction.REGISTER);
+
+            return;
+          }
+
+          final var earlier = this.previous.get(path);
+
+          if (fingerprint.size() != state.size()
+              || fingerprint.lastModified() != state.lastModified()
+              || (earlier != null && !Objects.equals(earlier.fileKey(), state.fileKey()))) {
+            actions.put(path, AutoloadEventAction.RELOAD);
+          }
+        });
+
+    // NOTE(garrett): Bundle members never exist on disk, they go away with
+    // the bundle they are nested in
+    for (final var path : registered.keySet()) {
+      if (this.roots.covers(path)
+          && !registered.containsKey(path.getParent())
+          && !current.containsKey(path)) {
+        actions.put(path, AutoloadEventAction.DEREGISTER);
+      }
+    }
+
+    this.previous = current;
+
+    return actions;
+  }
+}
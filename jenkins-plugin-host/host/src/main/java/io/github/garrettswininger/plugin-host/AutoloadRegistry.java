@@ -3,77 +3,233 @@ package io.github.garrettswininger.pluginhost;
 import hudson.ExtensionPoint;
 import io.github.garrettswininger.hosting.DynamicPlugin;
 import io.github.garrettswininger.hosting.Hosted;
-import java.io.File;
+import io.github.garrettswininger.pluginhost.HostedPluginMetrics.Phase;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
 import java.net.MalformedURLException;
-import java.net.URL;
-import java.net.URLClassLoader;
-import java.nio.file.Files;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
-import jenkins.model.Jenkins;
+import java.util.stream.Stream;
 
-record HostedRegistration(
-    byte[] digest,
-    URLClassLoader loader,
-    Map<Class<? extends ExtensionPoint>, List<? extends ExtensionPoint>> extensions) {}
+record PreparedRegistration(
+    Path path,
+    Optional<HostedRegistration> registration,
+    Optional<JarImage> bundle,
+    long prepareNanos) {}
 
 class AutoloadRegistry {
   private static final Logger LOGGER = Logger.getLogger(AutoloadRegistry.class.getName());
 
-  private Map<Path, HostedRegistration> registrations;
+  /**
+   * Tunables for a registry. {@link #DEFAULTS} matches the defaults of the watcher's system
+   * properties, so benchmarks and tests only spell out what they vary.
+   */
+  record Settings(
+      long instantiationTimeoutNanos,
+      int instantiationThreads,
+      int retainedCapacity,
+      long retainedMaxBytes,
+      long retainedTimeToLiveNanos,
+      boolean persistentCache) {
+    static final Settings DEFAULTS =
+        new Settings(
+            TimeUnit.SECONDS.toNanos(30),
+            2 * Runtime.getRuntime().availableProcessors(),
+            16,
+            64L << 20,
+            TimeUnit.SECONDS.toNanos(300),
+            true);
 
-  AutoloadRegistry() {
-    this.registrations = new HashMap<>();
+    Settings withRetainedCapacity(int retainedCapacity) {
+      return new Settings(
+          this.instantiationTimeoutNanos,
+          this.instantiationThreads,
+          retainedCapacity,
+          this.retainedMaxBytes,
+          this.retainedTimeToLiveNanos,
+          this.persistentCache);
+    }
+
+    /** Keeps the registration cache in memory only, nothing is read from or written to disk. */
+    Settings withoutPersistentCache() {
+      return new Settings(
+          this.instantiationTimeoutNanos,
+          this.instantiationThreads,
+          this.retainedCapacity,
+          this.retainedMaxBytes,
+          this.retainedTimeToLiveNanos,
+          false);
+    }
   }
 
-  private byte[] calculateDigest(Path path) {
-    try {
-      final var digest = MessageDigest.getInstance("MD5");
+  private final RegistrationTable registrations;
 
-      try (final var input = Files.newInputStream(path);
-          final var digestStream = new DigestInputStream(input, digest)) {
-        final var buffer = new byte[4096];
+  private final Map<Path, BundleRegistration> bundles = new ConcurrentHashMap<>();
 
-        while (digestStream.read(buffer, 0, buffer.length) != -1) {
-          // NOTE(garrett): Don't need to do anything, just pass data
-          // through the stream to update the digest
-        }
+  private final RegistrationCache cache;
 
-        return digest.digest();
-      } catch (IOException ex) {
-        LOGGER.warning(
-            String.format(
-                "Unable to access contents of %s for digest calculation", path.toString()));
+  private final HostedPluginMetrics metrics;
 
-        return new byte[0];
-      }
+  private final ExtensionListBatch.Lookup extensionLists;
+
+  private final RetiredLoaderTracker retiredLoaders;
+
+  private final SharedLibraryPool libraries;
+
+  private final PluginQuarantine quarantine;
+
+  private final long instantiationTimeoutNanos;
+
+  private final InstantiationPool instantiator;
+
+  private final RetainedRegistrations retained;
+
+  // NOTE(garrett): Preparation runs concurrently for different paths, but
+  // extension lists, the registration table, bundles and the cache only
+  // change under this lock. Jenkins doesn't serialize a refresh against a
+  // removeAll on the same list, so two unguarded batches can lose a change
+  private final Object commitLock = new Object();
+
+  AutoloadRegistry(
+      Path dataDirectory,
+      HostedPluginMetrics metrics,
+      ExtensionListBatch.Lookup extensionLists,
+      RetiredLoaderTracker retiredLoaders,
+      SharedLibraryPool libraries,
+      PluginQuarantine quarantine,
+      Settings settings) {
+    this.registrations = new RegistrationTable();
+    this.metrics = metrics;
+    this.extensionLists = extensionLists;
+    this.retiredLoaders = retiredLoaders;
+    this.libraries = libraries;
+    this.quarantine = quarantine;
+    this.instantiationTimeoutNanos = settings.instantiationTimeoutNanos();
+    this.instantiator = new InstantiationPool(settings.instantiationThreads());
+    this.retained =
+        new RetainedRegistrations(
+            settings.retainedCapacity(),
+            settings.retainedMaxBytes(),
+            settings.retainedTimeToLiveNanos(),
+            evicted -> closeLoader(evicted.path(), evicted.registration()));
+    this.cache =
+        settings.persistentCache()
+            ? new RegistrationCache(dataDirectory.resolve("registrations.cache"))
+            : RegistrationCache.inMemory();
+
+    this.cache.load();
+  }
+
+  /**
+   * A registry with its own leak tracker, library pool and quarantine under {@code dataDirectory},
+   * for running the pipeline outside of Jenkins. Leaks are never reported.
+   */
+  static AutoloadRegistry standalone(
+      Path dataDirectory, ExtensionListBatch.Lookup extensionLists, Settings settings) {
+    final var retiredLoaders =
+        new RetiredLoaderTracker(
+            dataDirectory.resolve("leaks"), Long.MAX_VALUE, false, false, extensionLists);
+
+    return new AutoloadRegistry(
+        dataDirectory,
+        new HostedPluginMetrics(),
+        extensionLists,
+        retiredLoaders,
+        new SharedLibraryPool(
+            dataDirectory.resolve("libraries"),
+            AutoloadRegistry.class.getClassLoader(),
+            retiredLoaders),
+        new PluginQuarantine(TimeUnit.MINUTES.toNanos(1), TimeUnit.HOURS.toNanos(1)),
+        settings);
+  }
+
+  InstantiationPool getInstantiator() {
+    return this.instantiator;
+  }
+
+  RetainedRegistrations getRetained() {
+    return this.retained;
+  }
+
+  /** Lock-free view of the current registrations, safe to call from any thread. */
+  SortedMap<Path, HostedRegistration> getRegistrations() {
+    return this.registrations.snapshot();
+  }
+
+  SortedMap<Path, BundleRegistration> getBundles() {
+    return new TreeMap<>(this.bundles);
+  }
+
+  /**
+   * Fingerprints of everything deployed from the autoload directory, keyed by the file it came
+   * from. Bundles appear under their own path, their members under paths nested in it.
+   */
+  SortedMap<Path, JarFingerprint> getFingerprints() {
+    final SortedMap<Path, JarFingerprint> fingerprints = new TreeMap<>();
+
+    this.registrations
+        .snapshot()
+        .forEach((path, registration) -> fingerprints.put(path, registration.fingerprint()));
+    this.bundles.forEach((path, bundle) -> fingerprints.put(path, bundle.fingerprint()));
+
+    return fingerprints;
+  }
+
+  private MessageDigest createDigest() {
+    try {
+      return MessageDigest.getInstance("MD5");
     } catch (NoSuchAlgorithmException ex) {
       LOGGER.warning(
           "Unable to instantiate the requested hash provider, cannot" + " validate file checksums");
 
-      return new byte[0];
+      return null;
     }
   }
 
+  static List<String> listCandidateClasses(JarImage jar) throws IOException {
+    final var index = jar.read(Hosted.INDEX);
+
+    if (index.isPresent()) {
+      return new String(index.get(), StandardCharsets.UTF_8)
+          .lines()
+          .map(String::trim)
+          .filter(line -> !line.isEmpty())
+          .toList();
+    }
+
+    LOGGER.fine(String.format("No plugin index present in %s, scanning class files", jar.path()));
+
+    return HostedClassScanner.scan(jar);
+  }
+
   // NOTE(garrett): We have to do unchecked casts here as we need to manually
   // reify extension types at runtime
   @SuppressWarnings("unchecked")
-  private Optional<DynamicPlugin<? extends ExtensionPoint, ? extends ExtensionPoint>> entryToPlugin(
-      ClassLoader loader, JarEntry entry) {
-    final var expectedClassName = entry.getName().replace("/", ".").replace(".class", "");
-
+  private Optional<DynamicPlugin<? extends ExtensionPoint, ? extends ExtensionPoint>> classToPlugin(
+      ClassLoader loader, String expectedClassName, long deadlineNanos)
+      throws ExecutionException, TimeoutException, InterruptedException {
     Class<?> clazz;
 
     try {
@@ -96,15 +252,12 @@ class AutoloadRegistry {
       return Optional.empty();
     }
 
-    DynamicPlugin<? extends ExtensionPoint, ? extends ExtensionPoint> plugin;
-
-    try {
-      plugin = (DynamicPlugin) clazz.getDeclaredConstructor().newInstance();
-    } catch (Exception ex) {
-      LOGGER.warning(String.format("Failed to instantiate dynamic plugin: %s", expectedClassName));
-
-      return Optional.empty();
-    }
+    final var pluginClass = clazz;
+    final DynamicPlugin<? extends ExtensionPoint, ? extends ExtensionPoint> plugin =
+        this.instantiator.call(
+            expectedClassName,
+            deadlineNanos,
+            () -> (DynamicPlugin) pluginClass.getDeclaredConstructor().newInstance());
 
     LOGGER.info(
         String.format(
@@ -114,168 +267,983 @@ class AutoloadRegistry {
     return Optional.of(plugin);
   }
 
-  // NOTE(garrett): We must manually reify types at runtime for loaded
-  // extensions
-  @SuppressWarnings("unchecked")
-  private Optional<HostedRegistration> createRegistrationFromJar(File file) {
-    final URLClassLoader loader;
+  // NOTE(garrett): Reflective constructors wrap what the plugin threw, and
+  // those often carry no message of their own
+  private static String describe(Throwable failure) {
+    return (failure instanceof InvocationTargetException wrapped && wrapped.getCause() != null)
+        ? wrapped.getCause().toString()
+        : failure.toString();
+  }
+
+  private void recordFailure(Path path, byte[] digest, String reason) {
+    if (digest.length > 0) {
+      this.quarantine.recordFailure(path, digest, reason);
+    } else {
+      LOGGER.warning(String.format("Failed to register %s (%s)", path, reason));
+    }
+  }
+
+  // NOTE(garrett): The JAR is read exactly once, the digest, index, scan
+  // and class loader all work from the same in-memory image
+  private Optional<JarImage> readImage(Path path) {
+    try {
+      return Optional.of(JarImage.read(path).requirePlain());
+    } catch (IOException ex) {
+      LOGGER.warning(
+          String.format("Failed to access JAR (%s): %s", path.toString(), ex.getMessage()));
+
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Builds a registration for {@code image}. When {@code known} is given and still matches the JAR,
+   * its digest is used instead of hashing the JAR again.
+   */
+  private Optional<HostedRegistration> createRegistration(
+      Path path, JarImage image, JarIdentity known) {
+    final JarFingerprint fingerprint;
+    final byte[] digest;
+    List<String> cachedCandidates = null;
+
+    final var cached = this.cache.lookup(path);
+    final var digestStart = System.nanoTime();
+    final Optional<JarFingerprint> revalidated =
+        cached.isPresent() ? cached.get().fingerprint().revalidate(image) : Optional.empty();
+    final Optional<JarFingerprint> identified =
+        known != null ? known.fingerprint().revalidate(image) : Optional.empty();
+
+    if (revalidated.isPresent()) {
+      LOGGER.fine(String.format("Using cached plugin classes for %s", path));
+
+      cachedCandidates = cached.get().pluginClasses();
+      fingerprint = revalidated.get();
+      digest = cached.get().digest();
+    } else if (identified.isPresent()) {
+      LOGGER.fine(String.format("Using precomputed digest for %s", path));
+
+      fingerprint = identified.get();
+      digest = known.digest();
+    } else {
+      final var messageDigest = createDigest();
+
+      fingerprint = JarFingerprint.of(image, messageDigest);
+      digest = messageDigest == null ? new byte[0] : messageDigest.digest();
+    }
+
+    this.metrics.record(path, Phase.DIGEST, System.nanoTime() - digestStart);
+
+    final var retainedRegistration = this.retained.reinstate(digest);
+
+    if (retainedRegistration.isPresent()) {
+      return Optional.of(reinstate(path, fingerprint, retainedRegistration.get()));
+    }
+
+    if (digest.length > 0 && this.quarantine.isQuarantined(digest)) {
+      LOGGER.info(
+          String.format("Skipping %s, its contents recently failed to register", path.toString()));
+
+      return Optional.empty();
+    }
+
+    final List<String> candidates;
+
+    if (cachedCandidates != null) {
+      candidates = cachedCandidates;
+    } else {
+      final var scanStart = System.nanoTime();
+
+      try {
+        candidates = listCandidateClasses(image);
+      } catch (IOException ex) {
+        recordFailure(path, digest, String.format("scan failed: %s", ex.getMessage()));
+
+        return Optional.empty();
+      }
+
+      this.metrics.record(path, Phase.SCAN, System.nanoTime() - scanStart);
+    }
+
+    final List<SharedLibraryPool.Library> sharedLibraries;
+
+    try {
+      sharedLibraries = this.libraries.acquire(image);
+    } catch (IOException ex) {
+      recordFailure(
+          path, digest, String.format("shared libraries unresolvable: %s", ex.getMessage()));
+
+      return Optional.empty();
+    }
+
+    final HostedClassLoader loader;
 
     try {
-      loader =
-          new URLClassLoader(new URL[] {file.toURI().toURL()}, this.getClass().getClassLoader());
+      loader = new HostedClassLoader(image, this.getClass().getClassLoader(), sharedLibraries);
     } catch (MalformedURLException ex) {
       LOGGER.warning(
-          String.format(
-              "Could not register plugins for path, malformed URL: %s", file.getPath().toString()));
+          String.format("Could not register plugins for path, malformed URL: %s", path.toString()));
+
+      this.libraries.release(sharedLibraries);
+
+      return Optional.empty();
+    }
+
+    final Map<Class<? extends ExtensionPoint>, List<HostedExtension>> pathRegistrations =
+        new LinkedHashMap<>();
+    final List<String> pluginClasses = new ArrayList<>();
+
+    var classLoadingNanos = 0L;
+    var instantiationNanos = 0L;
+
+    String failure = null;
+    var retryable = false;
+
+    // NOTE(garrett): A JAR with any plugin that fails to instantiate is
+    // rejected as a whole rather than registered with pieces missing
+    for (final var className : candidates) {
+      final var deadline = System.nanoTime() + this.instantiationTimeoutNanos;
+      final var loadStart = System.nanoTime();
+      final Optional<DynamicPlugin<? extends ExtensionPoint, ? extends ExtensionPoint>> entry;
+
+      try {
+        entry = classToPlugin(loader, className, deadline);
+      } catch (LinkageError ex) {
+        // NOTE(garrett): Missing dependencies and class files built for a
+        // newer JVM surface here, the usual signs of a broken JAR
+        failure = String.format("failed to link dynamic plugin %s: %s", className, ex);
+        break;
+      } catch (RejectedExecutionException ex) {
+        failure = ex.getMessage();
+        retryable = true;
+        break;
+      } catch (ExecutionException ex) {
+        failure =
+            String.format(
+                "failed to instantiate dynamic plugin %s: %s", className, describe(ex.getCause()));
+        break;
+      } catch (TimeoutException ex) {
+        failure = String.format("dynamic plugin %s timed out", className);
+        break;
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        failure = "interrupted";
+        break;
+      } finally {
+        classLoadingNanos += System.nanoTime() - loadStart;
+      }
+
+      if (entry.isEmpty()) {
+        continue;
+      }
+
+      final var plugin = entry.get();
+
+      pluginClasses.add(plugin.getClass().getName());
+
+      final ExtensionPoint instance;
+      final var instantiationStart = System.nanoTime();
+
+      if (plugin.lazy && !LazyExtension.isSupported(plugin)) {
+        LOGGER.fine(
+            String.format(
+                "%s is not an interface, constructing lazy extension %s eagerly",
+                plugin.extension.getName(), plugin.implementation.getName()));
+      }
+
+      try {
+        instance =
+            this.instantiator.call(
+                plugin.implementation.getName(),
+                deadline,
+                () ->
+                    LazyExtension.isSupported(plugin)
+                        ? LazyExtension.create(
+                            plugin,
+                            loader,
+                            nanos -> this.metrics.record(path, Phase.LAZY_INSTANTIATION, nanos))
+                        : plugin.getInstance());
+      } catch (RejectedExecutionException ex) {
+        failure = ex.getMessage();
+        retryable = true;
+        break;
+      } catch (ExecutionException ex) {
+        failure =
+            String.format(
+                "failed to instantiate extension %s: %s",
+                plugin.implementation.getName(), describe(ex.getCause()));
+        break;
+      } catch (TimeoutException ex) {
+        failure =
+            String.format(
+                "extension %s timed out after %d ms",
+                plugin.implementation.getName(),
+                TimeUnit.NANOSECONDS.toMillis(this.instantiationTimeoutNanos));
+        break;
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        failure = "interrupted";
+        break;
+      } finally {
+        instantiationNanos += System.nanoTime() - instantiationStart;
+      }
+
+      pathRegistrations
+          .computeIfAbsent(plugin.extension, key -> new ArrayList<>())
+          .add(
+              new HostedExtension(
+                  instance,
+                  plugin.ordinal,
+                  String.format("%s!%s", path.getFileName(), plugin.implementation.getName())));
+    }
+
+    this.metrics.record(path, Phase.CLASS_LOADING, classLoadingNanos);
+    this.metrics.record(path, Phase.INSTANTIATION, instantiationNanos);
+
+    if (failure != null) {
+      closeLoader(path, new HostedRegistration(digest, fingerprint, loader, Map.of()));
+
+      if (Thread.currentThread().isInterrupted()) {
+        LOGGER.warning(String.format("Registration of %s interrupted", path));
+      } else if (retryable) {
+        // NOTE(garrett): Not the plugin's fault, so not quarantined either
+        LOGGER.warning(String.format("Failed to register %s (%s)", path, failure));
+      } else {
+        recordFailure(path, digest, failure);
+      }
 
       return Optional.empty();
     }
 
-    final Map<Class<? extends ExtensionPoint>, List<? extends ExtensionPoint>> pathRegistrations =
-        new HashMap<>();
-
-    try (var jar = new JarFile(file)) {
-      jar.stream()
-          .filter(entry -> entry.getName().endsWith(".class"))
-          .map(entry -> entryToPlugin(loader, entry))
-          .forEach(
-              entry -> {
-                entry.ifPresent(
-                    plugin -> {
-                      ExtensionPoint instance;
-
-                      try {
-                        instance = plugin.getInstance();
-                      } catch (Exception ex) {
-                        LOGGER.warning(
-                            String.format(
-                                "Failed to instantiate extension (%s): %s",
-                                plugin.implementation.getName(), ex.getMessage()));
-
-                        return;
-                      }
-
-                      if (pathRegistrations.containsKey(plugin.extension)) {
-                        final var registeredExtensions = pathRegistrations.get(plugin.extension);
-
-                        ((List<ExtensionPoint>) registeredExtensions).add(instance);
-                      } else {
-                        final List<ExtensionPoint> instances = new ArrayList<>();
-
-                        instances.add(instance);
-                        pathRegistrations.put(plugin.extension, instances);
-                      }
-                    });
-              });
+    if (digest.length > 0) {
+      this.quarantine.recordSuccess(digest);
+
+      this.cache.put(
+          path,
+          new RegistrationCache.Entry(
+              fingerprint,
+              digest,
+              pluginClasses,
+              pathRegistrations.keySet().stream().map(Class::getName).sorted().toList()));
+    }
+
+    return Optional.of(new HostedRegistration(digest, fingerprint, loader, pathRegistrations));
+  }
+
+  /**
+   * Brings back a retained registration for identical contents at {@code path}. The loader and
+   * extension instances are reused as they are, only the sort keys follow the new file name.
+   */
+  private HostedRegistration reinstate(
+      Path path, JarFingerprint fingerprint, RetainedRegistrations.Retained retained) {
+    final var previous = retained.registration();
+    final Map<Class<? extends ExtensionPoint>, List<HostedExtension>> extensions =
+        new LinkedHashMap<>();
+
+    previous
+        .extensions()
+        .forEach(
+            (extensionType, instances) ->
+                extensions.put(
+                    extensionType,
+                    instances.stream()
+                        .map(
+                            extension ->
+                                new HostedExtension(
+                                    extension.instance(),
+                                    extension.ordinal(),
+                                    String.format(
+                                        "%s!%s",
+                                        path.getFileName(),
+                                        extension
+                                            .sortKey()
+                                            .substring(extension.sortKey().indexOf('!') + 1))))
+                        .toList()));
+
+    retained
+        .cacheEntry()
+        .ifPresent(
+            entry ->
+                this.cache.put(
+                    path,
+                    new RegistrationCache.Entry(
+                        fingerprint,
+                        previous.digest(),
+                        entry.pluginClasses(),
+                        entry.extensionTypes())));
+
+    LOGGER.info(
+        String.format(
+            "Reinstated %s from the registration retained for %s", path, retained.path()));
+
+    return new HostedRegistration(previous.digest(), fingerprint, previous.loader(), extensions);
+  }
+
+  // NOTE(garrett): Registrations leaving Jenkins are kept warm for a while,
+  // their loaders are only closed once evicted
+  private void retire(
+      Path pluginPath,
+      HostedRegistration registration,
+      Optional<RegistrationCache.Entry> cacheEntry) {
+    this.retained.retain(pluginPath, registration, cacheEntry);
+  }
+
+  private void closeLoader(Path pluginPath, HostedRegistration registration) {
+    registration.loader().close();
+    this.libraries.release(registration.loader().libraries());
+    this.retiredLoaders.retire(pluginPath, registration);
+  }
+
+  private Optional<List<String>> bundleMembers(JarImage image) {
+    try {
+      return Optional.of(BundleRegistration.declaredMembers(image));
     } catch (IOException ex) {
       LOGGER.warning(
-          String.format(
-              "Failed to access JAR (%s): %s", file.getPath().toString(), ex.getMessage()));
+          String.format("Failed to read the manifest of %s: %s", image.path(), ex.getMessage()));
 
       return Optional.empty();
     }
+  }
 
-    return Optional.of(
-        new HostedRegistration(calculateDigest(file.toPath()), loader, pathRegistrations));
+  private JarIdentity identify(JarImage image) {
+    final var messageDigest = createDigest();
+    final var fingerprint = JarFingerprint.of(image, messageDigest);
+
+    return new JarIdentity(
+        fingerprint, messageDigest == null ? new byte[0] : messageDigest.digest());
+  }
+
+  private static ExecutorService newPreparationPool(String purpose, int threadCount) {
+    final var threadIds = new AtomicInteger();
+
+    return Executors.newFixedThreadPool(
+        threadCount,
+        runnable -> {
+          final var thread =
+              new Thread(
+                  runnable,
+                  String.format("Jenkins-Plugin-Host-%s-%d", purpose, threadIds.incrementAndGet()));
+
+          thread.setDaemon(true);
+          return thread;
+        });
+  }
+
+  /**
+   * Builds the registration for one member of a bundle. A member whose contents match its live
+   * registration keeps that registration rather than being loaded again.
+   */
+  private Optional<HostedRegistration> prepareMember(
+      Path memberPath, JarImage bundle, String name, HostedRegistration live) throws IOException {
+    final var bytes = bundle.read(name);
+
+    if (bytes.isEmpty()) {
+      LOGGER.warning(String.format("Bundle %s has no member named %s", bundle.path(), name));
+
+      return Optional.empty();
+    }
+
+    final var image = JarImage.of(memberPath, bundle.lastModified(), bytes.get()).requirePlain();
+    final var identity = identify(image);
+
+    if (live != null
+        && identity.digest().length > 0
+        && Arrays.equals(live.digest(), identity.digest())) {
+      return Optional.of(
+          new HostedRegistration(
+              live.digest(), identity.fingerprint(), live.loader(), live.extensions()));
+    }
+
+    return createRegistration(memberPath, image, identity);
+  }
+
+  /**
+   * Deploys every member of the bundle at {@code pluginPath} in a single pass. Members are prepared
+   * concurrently and their extensions go live in one update. If any member fails, whatever was
+   * deployed at {@code pluginPath} before stays in place untouched.
+   */
+  private void deployBundle(
+      Path pluginPath, JarImage image, List<String> memberNames, JarIdentity known) {
+    final var previousBundle = this.bundles.get(pluginPath);
+    final Map<Path, HostedRegistration> live = new HashMap<>();
+    final List<Path> memberPaths = new ArrayList<>();
+
+    if (previousBundle != null) {
+      for (final var member : previousBundle.members()) {
+        final var registration = this.registrations.get(member);
+
+        if (registration != null) {
+          live.put(member, registration);
+        }
+      }
+    }
+
+    // NOTE(garrett): A plain JAR replaced by a bundle goes away in the same
+    // update that installs the bundle
+    final var previousJar = this.registrations.get(pluginPath);
+
+    if (previousJar != null) {
+      live.put(pluginPath, previousJar);
+    }
+
+    for (final var name : memberNames) {
+      final var memberPath = pluginPath.resolve(name);
+
+      if (!name.endsWith(".jar")
+          || !pluginPath.equals(memberPath.getParent())
+          || memberPaths.contains(memberPath)) {
+        LOGGER.warning(
+            String.format("Bundle %s not deployed, invalid member name: %s", pluginPath, name));
+
+        return;
+      }
+
+      memberPaths.add(memberPath);
+    }
+
+    final Map<Path, Optional<RegistrationCache.Entry>> liveEntries = new HashMap<>();
+
+    live.keySet().forEach(path -> liveEntries.put(path, this.cache.lookup(path)));
+
+    final var identity =
+        known != null && known.fingerprint().revalidate(image).isPresent()
+            ? known
+            : identify(image);
+    final var threadCount =
+        Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), memberPaths.size()));
+    final var executor = newPreparationPool("Bundle", threadCount);
+    final Map<Path, HostedRegistration> prepared = new LinkedHashMap<>();
+    final Map<Path, HostedRegistration> created = new LinkedHashMap<>();
+    String failure = null;
+
+    try {
+      final List<Future<Optional<HostedRegistration>>> pending = new ArrayList<>();
+
+      for (var i = 0; i < memberPaths.size(); i++) {
+        final var memberPath = memberPaths.get(i);
+        final var name = memberNames.get(i);
+
+        pending.add(
+            executor.submit(() -> prepareMember(memberPath, image, name, live.get(memberPath))));
+      }
+
+      // NOTE(garrett): Every result is collected even after a failure, so
+      // members that did load can be handed back below
+      for (var i = 0; i < pending.size(); i++) {
+        final var memberPath = memberPaths.get(i);
+        final Optional<HostedRegistration> result;
+
+        try {
+          result = pending.get(i).get();
+        } catch (ExecutionException ex) {
+          failure = String.format("%s failed: %s", memberPath, describe(ex.getCause()));
+
+          continue;
+        }
+
+        if (result.isEmpty()) {
+          failure = String.format("%s failed to register", memberPath);
+
+          continue;
+        }
+
+        final var registration = result.get();
+        final var current = live.get(memberPath);
+
+        prepared.put(memberPath, registration);
+
+        if (current == null || current.loader() != registration.loader()) {
+          created.put(memberPath, registration);
+        }
+      }
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      failure = "interrupted";
+    } finally {
+      executor.shutdownNow();
+    }
+
+    if (failure != null) {
+      LOGGER.warning(String.format("Bundle %s not deployed, %s", pluginPath, failure));
+
+      // NOTE(garrett): Members that loaded never went live, retaining them
+      // lets a corrected bundle reinstate them instead of loading them again.
+      // Their cache entries go with them, the cache keeps describing what is
+      // actually deployed
+      synchronized (this.commitLock) {
+        created.forEach(
+            (path, registration) -> {
+              retire(path, registration, this.cache.lookup(path));
+
+              final var liveEntry = liveEntries.getOrDefault(path, Optional.empty());
+
+              if (liveEntry.isPresent()) {
+                this.cache.put(path, liveEntry.get());
+              } else {
+                this.cache.remove(path);
+              }
+            });
+        this.cache.save();
+      }
+
+      return;
+    }
+
+    synchronized (this.commitLock) {
+      final var batch = new ExtensionListBatch(this.extensionLists);
+      final Map<Path, HostedRegistration> replaced = new LinkedHashMap<>();
+
+      created.values().forEach(batch::add);
+      live.forEach(
+          (path, registration) -> {
+            final var next = prepared.get(path);
+
+            if (next == null || next.loader() != registration.loader()) {
+              batch.remove(registration);
+              replaced.put(path, registration);
+            }
+          });
+
+      final var insertionStart = System.nanoTime();
+
+      batch.apply();
+
+      this.metrics.recordShared(
+          created.keySet(), Phase.EXTENSION_INSERTION, System.nanoTime() - insertionStart);
+
+      final var gone =
+          replaced.keySet().stream().filter(path -> !prepared.containsKey(path)).toList();
+
+      this.registrations.replace(gone, prepared);
+      this.bundles.put(
+          pluginPath,
+          new BundleRegistration(identity.digest(), identity.fingerprint(), memberPaths));
+
+      replaced.forEach((path, registration) -> retire(path, registration, liveEntries.get(path)));
+
+      for (final var path : gone) {
+        this.metrics.forget(path);
+        this.cache.remove(path);
+      }
+
+      this.cache.save();
+    }
+
+    LOGGER.info(
+        String.format(
+            "Deployed bundle %s with %d members, %d loaded and %d unchanged",
+            pluginPath, memberPaths.size(), created.size(), memberPaths.size() - created.size()));
+  }
+
+  /**
+   * Replaces a bundle with the plain JAR now at its path. The JAR is fully built before anything
+   * changes, and the swap is a single update, so a JAR that fails to load leaves the bundle in
+   * place.
+   */
+  private void replaceBundle(
+      Path pluginPath, BundleRegistration bundle, JarImage image, JarIdentity known) {
+    LOGGER.info(String.format("Bundle %s was replaced by a plain JAR", pluginPath));
+
+    final var replacement = this.createRegistration(pluginPath, image, known);
+
+    if (replacement.isEmpty()) {
+      LOGGER.warning(
+          String.format(
+              "Failed to build replacement for bundle %s, keeping the bundle", pluginPath));
+
+      return;
+    }
+
+    synchronized (this.commitLock) {
+      final var batch = new ExtensionListBatch(this.extensionLists);
+      final Map<Path, HostedRegistration> removed = new LinkedHashMap<>();
+
+      batch.add(replacement.get());
+
+      for (final var member : bundle.members()) {
+        final var registration = this.registrations.get(member);
+
+        if (registration != null) {
+          batch.remove(registration);
+          removed.put(member, registration);
+        }
+      }
+
+      final var insertionStart = System.nanoTime();
+
+      batch.apply();
+
+      this.metrics.record(
+          pluginPath, Phase.EXTENSION_INSERTION, System.nanoTime() - insertionStart);
+
+      this.registrations.replace(removed.keySet(), Map.of(pluginPath, replacement.get()));
+      this.bundles.remove(pluginPath);
+
+      removed.forEach(
+          (member, registration) -> {
+            retire(member, registration, this.cache.lookup(member));
+
+            this.metrics.forget(member);
+            this.cache.remove(member);
+          });
+
+      this.cache.save();
+    }
+
+    LOGGER.info(String.format("Hot-swapped bundle %s for a plain JAR", pluginPath));
+  }
+
+  private void deregisterBundle(Path pluginPath, BundleRegistration bundle) {
+    synchronized (this.commitLock) {
+      final var batch = new ExtensionListBatch(this.extensionLists);
+      final Map<Path, HostedRegistration> removed = new LinkedHashMap<>();
+
+      for (final var member : bundle.members()) {
+        final var registration = this.registrations.get(member);
+
+        if (registration != null) {
+          batch.remove(registration);
+          removed.put(member, registration);
+        }
+      }
+
+      batch.apply();
+
+      this.registrations.replace(removed.keySet(), Map.of());
+
+      removed.forEach(
+          (member, registration) -> {
+            retire(member, registration, this.cache.lookup(member));
+
+            this.metrics.forget(member);
+            this.cache.remove(member);
+          });
+
+      this.cache.save();
+    }
   }
 
   void deregister(Path pluginPath) {
     LOGGER.info(String.format("Deregistering: %s", pluginPath.toString()));
 
-    if (!this.registrations.containsKey(pluginPath)) {
-      LOGGER.fine("No registered classes, nothing to be done");
+    final var bundle = this.bundles.remove(pluginPath);
+
+    if (bundle != null) {
+      deregisterBundle(pluginPath, bundle);
       return;
     }
 
     final var registration = this.registrations.get(pluginPath);
-    final var extensions = registration.extensions();
 
-    for (final var extensionType : extensions.keySet()) {
-      final var extensionList = Jenkins.get().getExtensionList(extensionType);
+    if (registration == null) {
+      LOGGER.fine("No registered classes, nothing to be done");
+      return;
+    }
+
+    synchronized (this.commitLock) {
+      final var batch = new ExtensionListBatch(this.extensionLists);
+
+      batch.remove(registration);
+      batch.apply();
+
+      retire(pluginPath, registration, this.cache.lookup(pluginPath));
+
+      this.registrations.remove(pluginPath);
+      this.metrics.forget(pluginPath);
+      this.cache.remove(pluginPath);
+      this.cache.save();
+    }
+  }
 
-      for (final var extension : extensions.get(extensionType)) {
-        extensionList.remove(extension);
+  void register(Path pluginPath) {
+    register(pluginPath, null);
+  }
+
+  private void register(Path pluginPath, JarIdentity known) {
+    // NOTE(garrett): Uploads register straight away, so the watcher's event
+    // for the same file arrives for a path that is already registered
+    if (this.registrations.get(pluginPath) != null || this.bundles.containsKey(pluginPath)) {
+      reload(pluginPath, known);
+      return;
+    }
+
+    LOGGER.info(String.format("Registering: %s", pluginPath.toString()));
+
+    final var image = readImage(pluginPath);
+    final var members = image.flatMap(this::bundleMembers);
+
+    if (members.isEmpty()) {
+      return;
+    }
+
+    if (!members.get().isEmpty()) {
+      deployBundle(pluginPath, image.get(), members.get(), known);
+      return;
+    }
+
+    this.createRegistration(pluginPath, image.get(), known)
+        .ifPresent(
+            registration -> {
+              synchronized (this.commitLock) {
+                final var batch = new ExtensionListBatch(this.extensionLists);
+                final var insertionStart = System.nanoTime();
+
+                batch.add(registration);
+                batch.apply();
+
+                this.metrics.record(
+                    pluginPath, Phase.EXTENSION_INSERTION, System.nanoTime() - insertionStart);
+                this.registrations.put(pluginPath, registration);
+              }
+            });
+
+    synchronized (this.commitLock) {
+      this.cache.save();
+    }
+  }
+
+  /**
+   * Prepares registrations for all paths concurrently, then installs them into Jenkins in path
+   * order from the calling thread so extension ordering doesn't depend on which JAR finished first.
+   * Bundles are deployed afterwards, each in its own pass.
+   */
+  void registerAll(List<Path> pluginPaths, int parallelism) {
+    final var orderedPaths = pluginPaths.stream().sorted().toList();
+    final var threadCount = Math.max(1, Math.min(parallelism, orderedPaths.size()));
+    final var executor = newPreparationPool("Startup", threadCount);
+    final Map<Path, JarImage> bundleImages = new LinkedHashMap<>();
+
+    LOGGER.info(
+        String.format(
+            "Registering %d hosted JARs with parallelism of %d", orderedPaths.size(), threadCount));
+
+    final var startTime = System.nanoTime();
+
+    try {
+      final List<Future<PreparedRegistration>> pending = new ArrayList<>();
+
+      for (final var pluginPath : orderedPaths) {
+        pending.add(
+            executor.submit(
+                () -> {
+                  final var prepareStart = System.nanoTime();
+                  final var image = readImage(pluginPath);
+                  final var members = image.flatMap(this::bundleMembers);
+
+                  if (members.isPresent() && !members.get().isEmpty()) {
+                    return new PreparedRegistration(
+                        pluginPath, Optional.empty(), image, System.nanoTime() - prepareStart);
+                  }
+
+                  final var registration =
+                      members.isPresent()
+                          ? this.createRegistration(pluginPath, image.get(), null)
+                          : Optional.<HostedRegistration>empty();
+
+                  return new PreparedRegistration(
+                      pluginPath, registration, Optional.empty(), System.nanoTime() - prepareStart);
+                }));
+      }
+
+      final var batch = new ExtensionListBatch(this.extensionLists);
+      final Map<Path, HostedRegistration> prepared = new LinkedHashMap<>();
+
+      for (final var future : pending) {
+        final PreparedRegistration result;
+
+        try {
+          result = future.get();
+        } catch (ExecutionException ex) {
+          LOGGER.warning(
+              String.format("Failed to prepare hosted JAR: %s", ex.getCause().getMessage()));
+
+          continue;
+        }
 
         LOGGER.info(
             String.format(
-                "Removed %s extension: %s",
-                extensionType.getName(), extension.getClass().getName()));
+                "Prepared %s for startup registration in %d ms",
+                result.path().toString(), TimeUnit.NANOSECONDS.toMillis(result.prepareNanos())));
+
+        result
+            .registration()
+            .ifPresent(
+                registration -> {
+                  batch.add(registration);
+                  prepared.put(result.path(), registration);
+                });
+        result.bundle().ifPresent(bundle -> bundleImages.put(result.path(), bundle));
+      }
+
+      final var installStart = System.nanoTime();
+
+      synchronized (this.commitLock) {
+        batch.apply();
+        this.registrations.putAll(prepared);
       }
+
+      this.metrics.recordShared(
+          prepared.keySet(), Phase.EXTENSION_INSERTION, System.nanoTime() - installStart);
+
+      LOGGER.info(
+          String.format(
+              "Installed extensions from %d hosted JARs in %d ms",
+              prepared.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - installStart)));
+    } catch (InterruptedException ex) {
+      LOGGER.severe("Startup registration interrupted, some hosted plugins were not loaded.");
+      Thread.currentThread().interrupt();
+    } finally {
+      executor.shutdownNow();
     }
 
-    try {
-      registration.loader().close();
-    } catch (IOException ex) {
-      LOGGER.warning(
-          String.format("Failed to close class loader for %s: %s", pluginPath, ex.getMessage()));
+    bundleImages.forEach(
+        (path, image) ->
+            bundleMembers(image).ifPresent(members -> deployBundle(path, image, members, null)));
+
+    // NOTE(garrett): Drop entries for JARs removed while the controller was down
+    synchronized (this.commitLock) {
+      this.cache.retain(
+          Stream.concat(
+                  orderedPaths.stream(),
+                  this.bundles.values().stream().flatMap(bundle -> bundle.members().stream()))
+              .toList());
+      this.cache.save();
     }
 
-    this.registrations.remove(pluginPath);
+    LOGGER.info(
+        String.format(
+            "Startup registration of %d hosted JARs completed in %d ms",
+            orderedPaths.size(), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime)));
   }
 
-  // NOTE(garrett): We must manually reify the type cast for the extension
-  // point
-  @SuppressWarnings("unchecked")
-  void register(Path pluginPath) {
-    LOGGER.info(String.format("Registering: %s", pluginPath.toString()));
-
-    final var registration = this.createRegistrationFromJar(pluginPath.toFile());
-
-    registration.ifPresent(
-        pathRegistration -> {
-          pathRegistration.extensions().entrySet().stream()
-              .forEach(
-                  entry -> {
-                    final var extensionType = entry.getKey();
-                    final var extensionList =
-                        Jenkins.get().getExtensionList((Class<ExtensionPoint>) extensionType);
-
-                    entry.getValue().stream()
-                        .forEach(
-                            instance -> {
-                              // NOTE(garrett): The `add` method is deprecated but `add` with
-                              // an index is not, though they do the same thing under the hood
-                              extensionList.add(0, instance);
-
-                              LOGGER.info(
-                                  String.format(
-                                      "%s extension: %s successfully installed into the instance",
-                                      extensionType.getName(), instance.getClass().getName()));
-                            });
-                  });
-
-          this.registrations.put(pluginPath, pathRegistration);
-        });
+  /**
+   * Registers or reloads a JAR just moved into place by an upload, reusing the identity computed
+   * while it was written.
+   */
+  void deploy(Path pluginPath, JarIdentity identity) {
+    register(pluginPath, identity);
   }
 
   void reload(Path pluginPath) {
+    reload(pluginPath, null);
+  }
+
+  private void reload(Path pluginPath, JarIdentity known) {
+    final var currentBundle = this.bundles.get(pluginPath);
     final var currentRegistration = this.registrations.get(pluginPath);
 
-    if (currentRegistration == null) {
-      register(pluginPath);
+    if (currentRegistration == null && currentBundle == null) {
+      register(pluginPath, known);
       return;
     }
 
     LOGGER.info(String.format("Re-registering: %s", pluginPath.toString()));
 
-    final var newDigest = calculateDigest(pluginPath);
-    final var existingDigest = currentRegistration.digest();
+    final var currentDigest =
+        currentBundle != null ? currentBundle.digest() : currentRegistration.digest();
+    final var currentFingerprint =
+        currentBundle != null ? currentBundle.fingerprint() : currentRegistration.fingerprint();
+    final Optional<JarFingerprint> unchanged;
 
-    if (newDigest.length == 0 || existingDigest.length == 0) {
+    try {
+      unchanged =
+          known != null
+              ? Arrays.equals(known.digest(), currentDigest)
+                  ? Optional.of(known.fingerprint())
+                  : Optional.empty()
+              : currentFingerprint.revalidate(pluginPath);
+    } catch (NoSuchFileException ex) {
+      // NOTE(garrett): Coalesced from a deletion followed by a modification,
+      // and the file is gone again by the time the event fired
+      deregister(pluginPath);
+      return;
+    } catch (IOException ex) {
       LOGGER.warning(
           String.format(
-              "Checkum calculation was unable to be completed, %s will" + " not be reloaded",
-              pluginPath.toString()));
+              "Change detection was unable to be completed, %s will not be reloaded: %s",
+              pluginPath.toString(), ex.getMessage()));
+
+      return;
     }
 
-    if (Arrays.equals(newDigest, existingDigest)) {
+    if (unchanged.isPresent()) {
       LOGGER.info(
           String.format(
-              "Old and new JAR hashes at %s are identical, nothing to do", pluginPath.toString()));
+              "Old and new JAR contents at %s are identical, nothing to do",
+              pluginPath.toString()));
+
+      // NOTE(garrett): Remember the new modification time so the next event
+      // for an untouched file doesn't need to hash it again
+      if (currentBundle != null) {
+        this.bundles.put(
+            pluginPath,
+            new BundleRegistration(currentDigest, unchanged.get(), currentBundle.members()));
+      } else {
+        this.registrations.put(
+            pluginPath,
+            new HostedRegistration(
+                currentDigest,
+                unchanged.get(),
+                currentRegistration.loader(),
+                currentRegistration.extensions()));
+      }
 
       return;
     }
 
-    // TODO(garrett): Perform Jenkins-level logic to do a dynamic reload
+    final var image = readImage(pluginPath);
+    final var members = image.flatMap(this::bundleMembers);
+
+    if (members.isEmpty()) {
+      LOGGER.warning(
+          String.format(
+              "Failed to read replacement for %s, keeping the existing registration",
+              pluginPath.toString()));
+
+      return;
+    }
+
+    if (!members.get().isEmpty()) {
+      deployBundle(pluginPath, image.get(), members.get(), known);
+      return;
+    }
+
+    if (currentBundle != null) {
+      replaceBundle(pluginPath, currentBundle, image.get(), known);
+      return;
+    }
+
+    // NOTE(garrett): The replacement gets its own loader and is fully built
+    // while the current registration keeps serving, only the swap itself
+    // touches the extension lists
+    final var currentEntry = this.cache.lookup(pluginPath);
+    final var replacement = this.createRegistration(pluginPath, image.get(), known);
+
+    if (replacement.isEmpty()) {
+      LOGGER.warning(
+          String.format(
+              "Failed to build replacement for %s, keeping the existing registration",
+              pluginPath.toString()));
+
+      return;
+    }
+
+    synchronized (this.commitLock) {
+      final var batch = new ExtensionListBatch(this.extensionLists);
+      final var insertionStart = System.nanoTime();
+
+      batch.add(replacement.get());
+      batch.remove(currentRegistration);
+      batch.apply();
+
+      this.metrics.record(
+          pluginPath, Phase.EXTENSION_INSERTION, System.nanoTime() - insertionStart);
+
+      this.registrations.put(pluginPath, replacement.get());
+      this.cache.save();
+
+      retire(pluginPath, currentRegistration, currentEntry);
+    }
+
+    LOGGER.info(String.format("Hot-swapped registration for %s", pluginPath.toString()));
   }
 }
@@ -0,0 +1,169 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * The directories JARs are autoloaded from. Every directory nested in a root is part of it, so
+ * teams can keep their JARs in their own subdirectories, and roots can sit on different volumes.
+ *
+ * <p>No JAR may be reachable from two roots, so a root nested in or containing one that is already
+ * configured is ignored. The primary root always wins.
+ */
+final class AutoloadRoots {
+  private static final Logger LOGGER = Logger.getLogger(AutoloadRoots.class.getName());
+
+  private final Path primary;
+
+  private final List<Path> roots;
+
+  AutoloadRoots(Path primary, List<Path> additional) {
+    final List<Path> roots = new ArrayList<>(List.of(primary));
+
+    for (final var candidate : additional) {
+      final var root = candidate.toAbsolutePath().normalize();
+      final var overlapping =
+          roots.stream()
+              .filter(existing -> root.startsWith(existing) || existing.startsWith(root))
+              .findFirst();
+
+      if (overlapping.isPresent()) {
+        LOGGER.warning(
+            String.format(
+                "Ignoring autoload root %s, it overlaps with %s", root, overlapping.get()));
+
+        continue;
+      }
+
+      roots.add(root);
+    }
+
+    this.primary = primary;
+    this.roots = List.copyOf(roots);
+  }
+
+  /** Splits a list of directories separated by the platform path separator. */
+  static List<Path> parse(String value) {
+    return Arrays.stream(value.split(File.pathSeparator))
+        .map(String::trim)
+        .filter(entry -> !entry.isEmpty())
+        .map(Path::of)
+        .toList();
+  }
+
+  /** The root uploads are written to, {@code hosted-plugins/autoload}. */
+  Path primary() {
+    return this.primary;
+  }
+
+  List<Path> roots() {
+    return this.roots;
+  }
+
+  /** Whether {@code path} is within one of the roots. */
+  boolean covers(Path path) {
+    for (final var root : this.roots) {
+      if (path.startsWith(root)) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Lists and stats every JAR under every root. Each directory is its own task on a pool of {@code
+   * parallelism} threads, so wide trees, and roots on volumes with their own latency, are listed
+   * concurrently. Roots that don't exist are skipped with a warning.
+   */
+  SortedMap<Path, FileState> enumerate(int parallelism) throws IOException {
+    final Map<Path, FileState> jars = new ConcurrentHashMap<>();
+    final var threadIds = new AtomicInteger();
+    final var pool =
+        new ForkJoinPool(
+            Math.max(1, parallelism),
+            forkJoinPool -> {
+              final var thread =
+                  ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+
+              thread.setName(
+                  String.format("Jenkins-Plugin-Host-Enumeration-%d", threadIds.incrementAndGet()));
+              return thread;
+            },
+            null,
+            false);
+
+    try {
+      final List<ForkJoinTask<Void>> tasks = new ArrayList<>();
+
+      for (final var root : this.roots) {
+        if (!Files.isDirectory(root)) {
+          LOGGER.warning(String.format("Autoload root %s is not a directory, skipping", root));
+
+          continue;
+        }
+
+        tasks.add(pool.submit(new ListDirectory(root, jars)));
+      }
+
+      tasks.forEach(ForkJoinTask::join);
+    } catch (UncheckedIOException ex) {
+      throw ex.getCause();
+    } finally {
+      pool.shutdownNow();
+    }
+
+    return new TreeMap<>(jars);
+  }
+
+  private static final class ListDirectory extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final transient Path directory;
+
+    private final transient Map<Path, FileState> jars;
+
+    ListDirectory(Path directory, Map<Path, FileState> jars) {
+      this.directory = directory;
+      this.jars = jars;
+    }
+
+    @Override
+    protected void compute() {
+      final FileState.Listing listing;
+
+      try {
+        listing = FileState.list(this.directory);
+      } catch (NoSuchFileException ex) {
+        // NOTE(garrett): Removed while the walk was under way, whatever was in
+        // it is gone as well
+        return;
+      } catch (IOException ex) {
+        throw new UncheckedIOException(ex);
+      }
+
+      this.jars.putAll(listing.jars());
+
+      ForkJoinTask.invokeAll(
+          listing.directories().stream()
+              .map(subdirectory -> new ListDirectory(subdirectory, this.jars))
+              .toList());
+    }
+  }
+}
@@ -0,0 +1,282 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import java.util.logging.Logger;
+
+/**
+ * Debounces and coalesces autoload events per path.
+ *
+ * <p>Each path has at most one mutable pending handle. Coalescing a new filesystem event only
+ * updates that handle's action and deadline under the map's per-key lock, so it costs the same no
+ * matter how many events are pending. The wakeup queue holds one entry per handle. When an entry
+ * comes due early because its handle's deadline moved, it is simply re-queued.
+ *
+ * <p>An event fires once the file's size and modification time have held steady for the quiet
+ * period, or once the maximum settle time has passed since the first event for the path, whichever
+ * comes first.
+ */
+final class AutoloadScheduler {
+  private static final Logger LOGGER = Logger.getLogger(AutoloadScheduler.class.getName());
+
+  record AutoloadEvent(AutoloadEventAction action, Path path) {}
+
+  private record FileState(long size, long lastModified) {
+    private static final FileState MISSING = new FileState(-1, -1);
+
+    static FileState of(Path path) {
+      try {
+        final var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+        return new FileState(attributes.size(), attributes.lastModifiedTime().toMillis());
+      } catch (IOException ex) {
+        return MISSING;
+      }
+    }
+  }
+
+  // NOTE(garrett): Mutable fields are only touched from within the pending
+  // map's compute functions for the handle's path
+  private static final class PendingEvent {
+    private final Path path;
+    private final long firstSeenNanos;
+
+    private AutoloadEventAction action;
+    private long deadlineNanos;
+    private FileState observed;
+
+    PendingEvent(AutoloadEventAction action, Path path, long firstSeenNanos, long deadlineNanos) {
+      this.action = action;
+      this.path = path;
+      this.firstSeenNanos = firstSeenNanos;
+      this.deadlineNanos = deadlineNanos;
+      this.observed = FileState.of(path);
+    }
+  }
+
+  private record Wakeup(PendingEvent event, long dueNanos, LongSupplier clock) implements Delayed {
+    @Override
+    public int compareTo(Delayed other) {
+      if (other instanceof Wakeup wakeup) {
+        return Long.compare(this.dueNanos, wakeup.dueNanos);
+      }
+
+      return Long.compare(
+          this.getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(this.dueNanos - this.clock.getAsLong(), TimeUnit.NANOSECONDS);
+    }
+  }
+
+  private final long quietPeriodNanos;
+  private final long maxSettleNanos;
+
+  private final LongSupplier clock;
+
+  private final ConcurrentHashMap<Path, PendingEvent> pending = new ConcurrentHashMap<>();
+
+  private final DelayQueue<Wakeup> wakeups = new DelayQueue<>();
+
+  AutoloadScheduler(long quietPeriodNanos, long maxSettleNanos) {
+    this(quietPeriodNanos, maxSettleNanos, System::nanoTime);
+  }
+
+  /** Uses {@code clock} in place of {@link System#nanoTime()}, so tests decide when time passes. */
+  AutoloadScheduler(long quietPeriodNanos, long maxSettleNanos, LongSupplier clock) {
+    this.quietPeriodNanos = quietPeriodNanos;
+    this.maxSettleNanos = maxSettleNanos;
+    this.clock = clock;
+  }
+
+  int pendingCount() {
+    return this.pending.size();
+  }
+
+  /** Schedules an event for the path, returning whether it merged with one already pending. */
+  boolean submit(Path path, AutoloadEventAction action) {
+    final var coalesced = new boolean[1];
+
+    this.pending.compute(
+        path,
+        (key, current) -> {
+          final var now = this.clock.getAsLong();
+
+          if (current == null) {
+            LOGGER.info(
+                String.format(
+                    "New event detected for %s (%s)", path.toString(), action.toString()));
+
+            final var event = new PendingEvent(action, path, now, now + this.quietPeriodNanos);
+
+            this.wakeups.put(new Wakeup(event, event.deadlineNanos, this.clock));
+            return event;
+          }
+
+          final var newAction = coalesce(path, current.action, action);
+          coalesced[0] = true;
+
+          if (newAction == null) {
+            // NOTE(garrett): The queued wakeup no longer matches a mapped
+            // handle and is discarded when it comes due
+            return null;
+          }
+
+          LOGGER.fine(
+              String.format(
+                  "Coalesced existing event for %s (%s, %s => %s)",
+                  path.toString(),
+                  current.action.toString(),
+                  action.toString(),
+                  newAction.toString()));
+
+          current.action = newAction;
+          current.deadlineNanos = now + this.quietPeriodNanos;
+
+          return current;
+        });
+
+    return coalesced[0];
+  }
+
+  /** Blocks until the next settled event is due and hands it off for processing. */
+  AutoloadEvent take() throws InterruptedException {
+    while (true) {
+      final var wakeup = this.wakeups.take();
+      final var ready = new AutoloadEvent[1];
+
+      this.pending.computeIfPresent(
+          wakeup.event().path,
+          (path, current) -> {
+            if (current != wakeup.event()) {
+              return current;
+            }
+
+            final var now = this.clock.getAsLong();
+
+            if (current.deadlineNanos - now > 0) {
+              this.wakeups.put(new Wakeup(current, current.deadlineNanos, this.clock));
+              return current;
+            }
+
+            if (!isSettled(current, now)) {
+              LOGGER.fine(String.format("Still changing, deferring: %s", path.toString()));
+
+              current.deadlineNanos = now + this.quietPeriodNanos;
+              this.wakeups.put(new Wakeup(current, current.deadlineNanos, this.clock));
+              return current;
+            }
+
+            ready[0] = new AutoloadEvent(current.action, path);
+            return null;
+          });
+
+      if (ready[0] != null) {
+        return ready[0];
+      }
+    }
+  }
+
+  private boolean isSettled(PendingEvent event, long now) {
+    if (event.action == AutoloadEventAction.DEREGISTER) {
+      return true;
+    }
+
+    if (now - event.firstSeenNanos >= this.maxSettleNanos) {
+      LOGGER.warning(
+          String.format(
+              "%s did not settle within %d ms, proceeding anyway",
+              event.path.toString(), TimeUnit.NANOSECONDS.toMillis(this.maxSettleNanos)));
+
+      return true;
+    }
+
+    final var current = FileState.of(event.path);
+
+    if (current.equals(event.observed)) {
+      return true;
+    }
+
+    event.observed = current;
+    return false;
+  }
+
+  private static AutoloadEventAction coalesce(
+      Path path, AutoloadEventAction prevAction, AutoloadEventAction action) {
+    AutoloadEventAction newAction = null;
+
+    switch (prevAction) {
+      case REGISTER:
+        switch (action) {
+          case REGISTER:
+            // NOTE(garrett): Resyncs and uploads can report a file the watcher
+            // already reported, registering twice is harmless
+            newAction = AutoloadEventAction.REGISTER;
+            break;
+          case DEREGISTER:
+            LOGGER.info(String.format("Registration no longer applicable for %s", path.toString()));
+
+            return null;
+          case RELOAD:
+            newAction = AutoloadEventAction.REGISTER;
+            break;
+        }
+
+        break;
+      case DEREGISTER:
+        switch (action) {
+          case REGISTER:
+            // NOTE(garrett): Deleted and recreated before either event fired,
+            // so this is a replacement and the reload compares contents
+            newAction = AutoloadEventAction.RELOAD;
+            break;
+          case DEREGISTER:
+            // NOTE(garrett): A removed directory deregisters JARs whose own
+            // deletion events are still pending
+            newAction = AutoloadEventAction.DEREGISTER;
+            break;
+          case RELOAD:
+            // NOTE(garrett): Recreated before the deletion fired, the reload
+            // compares contents and deregisters if the file is gone again
+            newAction = AutoloadEventAction.RELOAD;
+            break;
+        }
+
+        break;
+      case RELOAD:
+        switch (action) {
+          case REGISTER:
+            // NOTE(garrett): Resyncs report a file whose creation event was
+            // lost, the reload registers it if it isn't registered yet
+            newAction = AutoloadEventAction.RELOAD;
+            break;
+          case DEREGISTER:
+            newAction = AutoloadEventAction.DEREGISTER;
+            break;
+          case RELOAD:
+            newAction = AutoloadEventAction.RELOAD;
+            break;
+        }
+
+        break;
+    }
+
+    if (newAction == null) {
+      throw new IllegalStateException(
+          String.format(
+              "Coalescing returned an invalid state (%s followed by %s)",
+              prevAction.toString(), action.toString()));
+    }
+
+    return newAction;
+  }
+}
@@ -0,0 +1,176 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.logging.Logger;
+import java.util.zip.CRC32C;
+
+/**
+ * Writes uploaded JARs into a staging directory and moves them into the autoload directory in one
+ * atomic rename once they are complete, so nothing ever sees a partially written JAR there.
+ *
+ * <p>The fingerprint and digest are computed from the bytes as they arrive, which saves the
+ * registry from hashing the JAR again when it registers it.
+ */
+final class AutoloadUploader {
+  private static final Logger LOGGER = Logger.getLogger(AutoloadUploader.class.getName());
+
+  private static final String STAGING_SUFFIX = ".part";
+
+  private static final long TRANSFER_CHUNK = 1L << 20;
+
+  record Upload(Path path, long size, JarIdentity identity) {}
+
+  private final Path stagingDirectory;
+
+  private final Path autoloadDirectory;
+
+  private final long maxBytes;
+
+  AutoloadUploader(Path stagingDirectory, Path autoloadDirectory, long maxBytes) {
+    this.stagingDirectory = stagingDirectory;
+    this.autoloadDirectory = autoloadDirectory;
+    this.maxBytes = maxBytes;
+  }
+
+  /** Deletes uploads left half-written in the staging directory by an earlier run. */
+  void clean() {
+    try (DirectoryStream<Path> paths =
+        Files.newDirectoryStream(this.stagingDirectory, "*" + STAGING_SUFFIX)) {
+      for (final var path : paths) {
+        Files.deleteIfExists(path);
+
+        LOGGER.info(String.format("Deleted abandoned upload %s", path));
+      }
+    } catch (IOException ex) {
+      LOGGER.warning(
+          String.format(
+              "Failed to clean staging directory %s: %s", this.stagingDirectory, ex.getMessage()));
+    }
+  }
+
+  /**
+   * Resolves {@code name} within the autoload directory, rejecting anything but a plain JAR name.
+   */
+  Path resolve(String name) {
+    if (name == null || !name.endsWith(".jar") || name.startsWith(".")) {
+      throw new IllegalArgumentException(String.format("Not a JAR file name: %s", name));
+    }
+
+    final var path = this.autoloadDirectory.resolve(name);
+
+    // NOTE(garrett): The path is returned as resolved, so it is the same key
+    // the watcher produces for the file
+    if (!this.autoloadDirectory.normalize().equals(path.normalize().getParent())) {
+      throw new IllegalArgumentException(
+          String.format("%s is not a file name within %s", name, this.autoloadDirectory));
+    }
+
+    return path;
+  }
+
+  /**
+   * Streams {@code body} to a staged file, then moves it over {@code target}. The staged file is
+   * removed again if anything fails, leaving the autoload directory untouched.
+   */
+  Upload upload(Path target, InputStream body) throws IOException {
+    final MessageDigest digest;
+
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IOException("Unable to instantiate the requested hash provider", ex);
+    }
+
+    final var checksum = new CRC32C();
+    final var staged =
+        Files.createTempFile(
+            this.stagingDirectory, target.getFileName().toString(), STAGING_SUFFIX);
+
+    try {
+      final var source = new HashingChannel(Channels.newChannel(body), digest, checksum);
+      long size = 0;
+
+      try (final var channel = FileChannel.open(staged, StandardOpenOption.WRITE)) {
+        while (!source.finished) {
+          size += channel.transferFrom(source, size, TRANSFER_CHUNK);
+
+          if (size > this.maxBytes) {
+            throw new IOException(
+                String.format("Upload exceeds the limit of %d bytes", this.maxBytes));
+          }
+        }
+
+        channel.force(true);
+      }
+
+      // NOTE(garrett): The rename keeps the modification time, so the
+      // fingerprint taken here matches the file in the autoload directory
+      final var fingerprint =
+          new JarFingerprint(
+              size, Files.getLastModifiedTime(staged).toMillis(), checksum.getValue());
+
+      Files.move(
+          staged, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+      return new Upload(target, size, new JarIdentity(fingerprint, digest.digest()));
+    } finally {
+      Files.deleteIfExists(staged);
+    }
+  }
+
+  /** Feeds everything read through it to the digest and checksum, noting when the body ends. */
+  private static final class HashingChannel implements ReadableByteChannel {
+    private final ReadableByteChannel delegate;
+    private final MessageDigest digest;
+    private final CRC32C checksum;
+
+    private boolean finished;
+
+    HashingChannel(ReadableByteChannel delegate, MessageDigest digest, CRC32C checksum) {
+      this.delegate = delegate;
+      this.digest = digest;
+      this.checksum = checksum;
+    }
+
+    @Override
+    public int read(ByteBuffer buffer) throws IOException {
+      final var start = buffer.position();
+      final var read = this.delegate.read(buffer);
+
+      if (read < 0) {
+        this.finished = true;
+
+        return read;
+      }
+
+      final var chunk = buffer.duplicate().flip().position(start);
+
+      this.digest.update(chunk.duplicate());
+      this.checksum.update(chunk);
+
+      return read;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return this.delegate.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+      this.delegate.close();
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package io.github.garrettswininger.pluginhost;
+
+import io.github.garrettswininger.hosting.HostedBundle;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.Attributes;
+
+/**
+ * A deployed bundle. Its members are registered individually under paths nested in the bundle's
+ * path, this only ties them together so they are replaced and removed as one.
+ */
+record BundleRegistration(byte[] digest, JarFingerprint fingerprint, List<Path> members) {
+  static final Attributes.Name HOSTED_BUNDLE_MEMBERS = new Attributes.Name(HostedBundle.MEMBERS);
+
+  BundleRegistration {
+    members = List.copyOf(members);
+  }
+
+  /** Names of the member JARs stored in {@code jar}, empty if it isn't a bundle. */
+  static List<String> declaredMembers(JarImage jar) throws IOException {
+    final var value =
+        jar.manifest()
+            .map(manifest -> manifest.getMainAttributes().getValue(HOSTED_BUNDLE_MEMBERS))
+            .orElse(null);
+
+    if (value == null || value.isBlank()) {
+      return List.of();
+    }
+
+    return Arrays.asList(value.trim().split("\\s+"));
+  }
+}
@@ -0,0 +1,184 @@
+package io.github.garrettswininger.pluginhost;
+
+import hudson.ExtensionComponent;
+import hudson.ExtensionComponentSet;
+import hudson.ExtensionList;
+import hudson.ExtensionPoint;
+import hudson.model.Descriptor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+import jenkins.model.Jenkins;
+
+/**
+ * Collects extension changes for one or more registrations, grouped by extension type, so each
+ * affected ExtensionList has its listeners notified once for the additions and once for the
+ * removals of a batch.
+ *
+ * <p>Additions to a list are a single refresh, which copies and sorts it once. ExtensionList has no
+ * bulk removal, {@code removeAll} copies and sorts the list again for every instance it removes, so
+ * removals still cost one copy per removed extension.
+ */
+final class ExtensionListBatch {
+  private static final Logger LOGGER = Logger.getLogger(ExtensionListBatch.class.getName());
+
+  /** Resolves the list a batch mutates for a given extension type. */
+  interface Lookup {
+    <T> ExtensionList<T> get(Class<T> extensionType);
+  }
+
+  static final Lookup JENKINS =
+      new Lookup() {
+        @Override
+        public <T> ExtensionList<T> get(Class<T> extensionType) {
+          return Jenkins.get().getExtensionList(extensionType);
+        }
+      };
+
+  private final Lookup lookup;
+
+  private final Map<Class<? extends ExtensionPoint>, List<HostedExtension>> additions =
+      new LinkedHashMap<>();
+
+  private final Map<Class<? extends ExtensionPoint>, List<HostedExtension>> removals =
+      new LinkedHashMap<>();
+
+  ExtensionListBatch(Lookup lookup) {
+    this.lookup = lookup;
+  }
+
+  void add(HostedRegistration registration) {
+    merge(this.additions, registration.extensions());
+  }
+
+  void remove(HostedRegistration registration) {
+    merge(this.removals, registration.extensions());
+  }
+
+  boolean isEmpty() {
+    return this.additions.isEmpty() && this.removals.isEmpty();
+  }
+
+  private static void merge(
+      Map<Class<? extends ExtensionPoint>, List<HostedExtension>> target,
+      Map<Class<? extends ExtensionPoint>, List<HostedExtension>> extensions) {
+    extensions.forEach(
+        (extensionType, instances) ->
+            target.computeIfAbsent(extensionType, key -> new ArrayList<>()).addAll(instances));
+  }
+
+  /**
+   * Applies additions before removals, so an extension being replaced is briefly present twice
+   * rather than briefly missing. Removals go through one {@code removeAll} per list, which notifies
+   * listeners once but re-sorts the list per removed instance.
+   */
+  void apply() {
+    final var delta = new BatchComponentSet(this.additions);
+
+    for (final var entry : this.additions.entrySet()) {
+      final var extensionType = entry.getKey();
+      final var extensionList = this.lookup.get(extensionType);
+
+      // NOTE(garrett): `refresh` is a no-op for lists that haven't been
+      // loaded yet, so force the load before handing over the delta
+      extensionList.getComponents();
+      extensionList.refresh(delta);
+
+      for (final var extension : entry.getValue()) {
+        LOGGER.info(
+            String.format(
+                "%s extension: %s successfully installed into the instance",
+                extensionType.getName(), extension.instance().getClass().getName()));
+      }
+    }
+
+    for (final var entry : this.removals.entrySet()) {
+      final var extensionType = entry.getKey();
+
+      final var instances = entry.getValue().stream().map(HostedExtension::instance).toList();
+
+      this.lookup.get(extensionType).removeAll(instances);
+
+      for (final var instance : instances) {
+        LOGGER.info(
+            String.format(
+                "Removed %s extension: %s",
+                extensionType.getName(), instance.getClass().getName()));
+      }
+    }
+
+    this.additions.clear();
+    this.removals.clear();
+  }
+
+  private static final class BatchComponentSet extends ExtensionComponentSet {
+    private final Map<Class<? extends ExtensionPoint>, List<HostedExtension>> additions;
+
+    BatchComponentSet(Map<Class<? extends ExtensionPoint>, List<HostedExtension>> additions) {
+      this.additions = Map.copyOf(additions);
+    }
+
+    @Override
+    public <T> Collection<ExtensionComponent<T>> find(Class<T> type) {
+      final List<ExtensionComponent<T>> components = new ArrayList<>();
+
+      for (final var extension : this.additions.getOrDefault(type, List.of())) {
+        components.add(
+            new HostedComponent<>(
+                type.cast(extension.instance()), extension.ordinal(), extension.sortKey()));
+      }
+
+      return components;
+    }
+  }
+
+  /**
+   * Extension lists are sorted whenever they are refreshed, by ordinal and then by display name for
+   * descriptors or implementation class name for everything else. Hosted components refine that
+   * order with their sort key so that otherwise equal hosted extensions, like two versions of the
+   * same plugin, land in the same place on every controller regardless of which JAR was registered
+   * first.
+   *
+   * <p>The refinement only applies between two hosted components, since components Jenkins loaded
+   * itself compare with the plain order in both directions. A list where a hosted extension ties
+   * with one of those can still be ordered differently depending on what it held before.
+   */
+  private static final class HostedComponent<T> extends ExtensionComponent<T> {
+    private final String sortKey;
+
+    HostedComponent(T instance, double ordinal, String sortKey) {
+      super(instance, ordinal);
+
+      this.sortKey = sortKey;
+    }
+
+    @Override
+    public int compareTo(ExtensionComponent<T> that) {
+      final var order = super.compareTo(that);
+
+      if (order != 0 || !(that instanceof HostedComponent<T> hosted)) {
+        return order;
+      }
+
+      // NOTE(garrett): Jenkins only falls back to the class name when the
+      // two aren't both descriptors, which it tells apart by display name
+      if (!(this.getInstance() instanceof Descriptor<?>
+          && hosted.getInstance() instanceof Descriptor<?>)) {
+        final var byClass =
+            this.getInstance()
+                .getClass()
+                .getName()
+                .compareTo(hosted.getInstance().getClass().getName());
+
+        if (byClass != 0) {
+          return byClass;
+        }
+      }
+
+      return this.sortKey.compareTo(hosted.sortKey);
+    }
+  }
+}
@@ -0,0 +1,96 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * What a single stat call tells us about a JAR in an autoload directory. The file key tells a file
+ * replaced by a rename apart from the original, even when size and modification time match.
+ */
+record FileState(Object fileKey, long size, long lastModified) {
+  /** Stats {@code path}, returning null if it is gone or isn't a regular file. */
+  static FileState read(Path path) throws IOException {
+    final BasicFileAttributes attributes;
+
+    try {
+      attributes = Files.readAttributes(path, BasicFileAttributes.class);
+    } catch (NoSuchFileException ex) {
+      return null;
+    }
+
+    return of(attributes);
+  }
+
+  private static FileState of(BasicFileAttributes attributes) {
+    if (!attributes.isRegularFile()) {
+      return null;
+    }
+
+    return new FileState(
+        attributes.fileKey(), attributes.size(), attributes.lastModifiedTime().toMillis());
+  }
+
+  /** What listing a single directory found: its JARs, statted, and its subdirectories. */
+  record Listing(Map<Path, FileState> jars, List<Path> directories) {}
+
+  /**
+   * Lists {@code directory}, statting every JAR in it and collecting its subdirectories. Links to
+   * directories are not followed, so a link cycle can't turn a walk into an endless one.
+   */
+  static Listing list(Path directory) throws IOException {
+    final Map<Path, FileState> jars = new TreeMap<>();
+    final List<Path> directories = new ArrayList<>();
+
+    try (DirectoryStream<Path> paths = Files.newDirectoryStream(directory)) {
+      for (final var path : paths) {
+        final BasicFileAttributes attributes;
+
+        // NOTE(garrett): Entries deleted between listing and reading are left
+        // out, callers treat them as gone
+        try {
+          attributes =
+              Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (NoSuchFileException ex) {
+          continue;
+        }
+
+        if (attributes.isDirectory()) {
+          directories.add(path);
+        } else if (path.getFileName().toString().endsWith(".jar")) {
+          final var state = attributes.isSymbolicLink() ? read(path) : of(attributes);
+
+          if (state != null) {
+            jars.put(path, state);
+          }
+        }
+      }
+    }
+
+    return new Listing(jars, directories);
+  }
+
+  /** Stats only {@code paths}, without listing the directory they are in. */
+  static Map<Path, FileState> restat(Collection<Path> paths) throws IOException {
+    final Map<Path, FileState> states = new TreeMap<>();
+
+    for (final var path : paths) {
+      final var state = read(path);
+
+      if (state != null) {
+        states.put(path, state);
+      }
+    }
+
+    return states;
+  }
+}
@@ -0,0 +1,322 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.security.SecureClassLoader;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+
+/**
+ * Class loader for a single hosted JAR that keeps track of the classes it has defined. Classes from
+ * shared libraries take precedence over copies bundled in the JAR, so plugins using the same
+ * library also share its types.
+ *
+ * <p>Class and resource bytes come from a {@link JarImage}, so no file handle is held and closing
+ * the loader releases the image even if the loader itself is still reachable.
+ */
+class HostedClassLoader extends SecureClassLoader implements Closeable {
+  static {
+    registerAsParallelCapable();
+  }
+
+  private static final String PROTOCOL = "hosted";
+
+  private static final AtomicLong generations = new AtomicLong();
+
+  private final CodeSource codeSource;
+
+  private final List<SharedLibraryPool.Library> libraries;
+
+  private final Set<String> loadedClasses = ConcurrentHashMap.newKeySet();
+
+  private final LongAdder loadedBytes = new LongAdder();
+
+  private final URLStreamHandler resourceHandler = new ResourceHandler();
+
+  private volatile JarImage image;
+
+  HostedClassLoader(JarImage image, ClassLoader parent, List<SharedLibraryPool.Library> libraries)
+      throws MalformedURLException {
+    // NOTE(garrett): Unique names tell successive loaders for the same JAR
+    // apart in stack traces and heap dumps
+    super(
+        String.format("%s#%d", image.path().getFileName(), generations.incrementAndGet()), parent);
+
+    this.image = image;
+    this.codeSource = new CodeSource(image.path().toUri().toURL(), (CodeSigner[]) null);
+    this.libraries = List.copyOf(libraries);
+  }
+
+  List<SharedLibraryPool.Library> libraries() {
+    return this.libraries;
+  }
+
+  @Override
+  protected Class<?> findClass(String name) throws ClassNotFoundException {
+    final var shared = findLibraryClass(name);
+
+    if (shared != null) {
+      return shared;
+    }
+
+    final var clazz = defineOwnClass(name);
+
+    if (clazz == null) {
+      throw new ClassNotFoundException(name);
+    }
+
+    return clazz;
+  }
+
+  private Class<?> findLibraryClass(String name) {
+    for (final var library : this.libraries) {
+      final var clazz = library.loader.findSharedClass(name);
+
+      if (clazz != null) {
+        return clazz;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Finds a class in this library or its own libraries on behalf of a dependent loader, skipping
+   * the parent which that loader has already consulted. Returns null rather than throwing since
+   * misses are the common case.
+   */
+  private Class<?> findSharedClass(String name) {
+    synchronized (getClassLoadingLock(name)) {
+      final var loaded = findLoadedClass(name);
+
+      if (loaded != null) {
+        return loaded;
+      }
+
+      final var shared = findLibraryClass(name);
+
+      if (shared != null) {
+        return shared;
+      }
+
+      try {
+        return defineOwnClass(name);
+      } catch (ClassNotFoundException ex) {
+        return null;
+      }
+    }
+  }
+
+  private Class<?> defineOwnClass(String name) throws ClassNotFoundException {
+    final var current = this.image;
+
+    if (current == null) {
+      throw new ClassNotFoundException(String.format("%s (class loader closed)", name));
+    }
+
+    final byte[] bytes;
+
+    try {
+      final var entry = current.read(name.replace('.', '/') + ".class");
+
+      if (entry.isEmpty()) {
+        return null;
+      }
+
+      bytes = entry.get();
+
+      definePackageFor(current, name);
+    } catch (IOException ex) {
+      throw new ClassNotFoundException(name, ex);
+    }
+
+    final var clazz = defineClass(name, bytes, 0, bytes.length, this.codeSource);
+
+    this.loadedClasses.add(name);
+    this.loadedBytes.add(bytes.length);
+    return clazz;
+  }
+
+  private void definePackageFor(JarImage current, String className) throws IOException {
+    final var separator = className.lastIndexOf('.');
+
+    if (separator < 0) {
+      return;
+    }
+
+    final var packageName = className.substring(0, separator);
+
+    if (getDefinedPackage(packageName) != null) {
+      return;
+    }
+
+    final var main = current.manifest().map(Manifest::getMainAttributes).orElseGet(Attributes::new);
+
+    try {
+      definePackage(
+          packageName,
+          main.getValue(Attributes.Name.SPECIFICATION_TITLE),
+          main.getValue(Attributes.Name.SPECIFICATION_VERSION),
+          main.getValue(Attributes.Name.SPECIFICATION_VENDOR),
+          main.getValue(Attributes.Name.IMPLEMENTATION_TITLE),
+          main.getValue(Attributes.Name.IMPLEMENTATION_VERSION),
+          main.getValue(Attributes.Name.IMPLEMENTATION_VENDOR),
+          null);
+    } catch (IllegalArgumentException ex) {
+      // NOTE(garrett): Another thread defined the package first
+    }
+  }
+
+  private URL ownResource(String name) {
+    final var current = this.image;
+
+    if (current == null || !current.contains(name)) {
+      return null;
+    }
+
+    try {
+      return new URL(PROTOCOL, "", -1, "/" + name, this.resourceHandler);
+    } catch (MalformedURLException ex) {
+      return null;
+    }
+  }
+
+  // NOTE(garrett): Resources bundled in the JAR win over library resources,
+  // so plugins can still override library configuration files
+  @Override
+  public URL findResource(String name) {
+    final var resource = ownResource(name);
+
+    if (resource != null) {
+      return resource;
+    }
+
+    for (final var library : this.libraries) {
+      final var shared = library.loader.findResource(name);
+
+      if (shared != null) {
+        return shared;
+      }
+    }
+
+    return null;
+  }
+
+  @Override
+  public Enumeration<URL> findResources(String name) throws IOException {
+    final Set<URL> resources = new LinkedHashSet<>();
+    final var resource = ownResource(name);
+
+    if (resource != null) {
+      resources.add(resource);
+    }
+
+    for (final var library : this.libraries) {
+      resources.addAll(Collections.list(library.loader.findResources(name)));
+    }
+
+    return Collections.enumeration(resources);
+  }
+
+  /** Drops the image, after which no further classes or resources can be loaded. */
+  @Override
+  public void close() {
+    this.image = null;
+  }
+
+  int loadedClassCount() {
+    return this.loadedClasses.size();
+  }
+
+  /** Sums the class file sizes of everything this loader has defined. */
+  long retainedBytes() {
+    return this.loadedBytes.sum();
+  }
+
+  /** Size of the in-memory JAR, or 0 once the loader is closed. */
+  long imageBytes() {
+    final var current = this.image;
+
+    return current == null ? 0 : current.size();
+  }
+
+  /**
+   * Serves resource URLs straight from the image. URLs compare by identity, since resources with
+   * the same name in different hosted JARs must stay distinct.
+   */
+  private final class ResourceHandler extends URLStreamHandler {
+    @Override
+    protected URLConnection openConnection(URL url) {
+      return new URLConnection(url) {
+        private byte[] bytes;
+
+        @Override
+        public void connect() throws IOException {
+          if (this.connected) {
+            return;
+          }
+
+          final var current = HostedClassLoader.this.image;
+
+          if (current == null) {
+            throw new IOException(
+                String.format("Class loader %s is closed", HostedClassLoader.this.getName()));
+          }
+
+          final var name = this.url.getPath().substring(1);
+
+          this.bytes =
+              current
+                  .read(name)
+                  .orElseThrow(
+                      () -> new IOException(String.format("Resource no longer present: %s", name)));
+          this.connected = true;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+          connect();
+
+          return new ByteArrayInputStream(this.bytes);
+        }
+
+        @Override
+        public long getContentLengthLong() {
+          try {
+            connect();
+          } catch (IOException ex) {
+            return -1;
+          }
+
+          return this.bytes.length;
+        }
+      };
+    }
+
+    @Override
+    protected boolean equals(URL first, URL second) {
+      return first == second;
+    }
+
+    @Override
+    protected int hashCode(URL url) {
+      return System.identityHashCode(url);
+    }
+  }
+}
@@ -0,0 +1,264 @@
+package io.github.garrettswininger.pluginhost;
+
+import io.github.garrettswininger.hosting.DynamicPlugin;
+import io.github.garrettswininger.hosting.Hosted;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.logging.Logger;
+
+record ClassSummary(String name, String superName, boolean hosted, boolean concrete) {}
+
+/**
+ * Finds {@link Hosted} plugins in JARs without an index by reading class file bytes directly,
+ * leaving class definition to the loader for actual candidates only.
+ */
+final class HostedClassScanner {
+  private static final Logger LOGGER = Logger.getLogger(HostedClassScanner.class.getName());
+
+  private static final int MAGIC = 0xCAFEBABE;
+
+  private static final int ACC_INTERFACE = 0x0200;
+  private static final int ACC_ABSTRACT = 0x0400;
+
+  private static final byte[] HOSTED_DESCRIPTOR =
+      ("L" + Hosted.class.getName().replace('.', '/') + ";").getBytes(StandardCharsets.UTF_8);
+
+  private static final String PLUGIN_NAME = DynamicPlugin.class.getName();
+
+  private HostedClassScanner() {}
+
+  static List<String> scan(JarImage jar) throws IOException {
+    final Map<String, ClassSummary> summaries = new HashMap<>();
+
+    for (final var name : jar.names()) {
+      if (!name.endsWith(".class")
+          || name.startsWith("META-INF/")
+          || name.endsWith("-info.class")) {
+        continue;
+      }
+
+      final var bytes = jar.read(name).orElseThrow();
+
+      summarize(bytes)
+          .ifPresentOrElse(
+              summary -> summaries.put(summary.name(), summary),
+              () -> LOGGER.fine(String.format("Skipping malformed class file: %s", name)));
+    }
+
+    final List<String> candidates = new ArrayList<>();
+
+    for (final var summary : summaries.values()) {
+      if (summary.hosted() && summary.concrete() && extendsPlugin(summary, summaries)) {
+        candidates.add(summary.name());
+      }
+    }
+
+    return candidates;
+  }
+
+  // NOTE(garrett): Superclasses outside of the JAR can't be resolved without
+  // loading them, so those are left for the class loader to confirm
+  private static boolean extendsPlugin(ClassSummary summary, Map<String, ClassSummary> summaries) {
+    var current = summary;
+
+    for (var depth = 0; depth < summaries.size(); depth++) {
+      final var superName = current.superName();
+
+      if (superName == null || superName.equals(Object.class.getName())) {
+        return false;
+      }
+
+      if (superName.equals(PLUGIN_NAME)) {
+        return true;
+      }
+
+      current = summaries.get(superName);
+
+      if (current == null) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  static Optional<ClassSummary> summarize(byte[] bytes) {
+    try {
+      return Optional.of(parse(ByteBuffer.wrap(bytes)));
+    } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException ex) {
+      return Optional.empty();
+    }
+  }
+
+  private static ClassSummary parse(ByteBuffer buffer) {
+    if (buffer.getInt() != MAGIC) {
+      throw new IllegalArgumentException("Not a class file");
+    }
+
+    // NOTE(garrett): Minor and major versions
+    buffer.position(buffer.position() + 4);
+
+    final var poolSize = Short.toUnsignedInt(buffer.getShort());
+    final var utf8Offsets = new int[poolSize];
+    final var classNameIndices = new int[poolSize];
+
+    for (var i = 1; i < poolSize; i++) {
+      final var tag = buffer.get();
+
+      switch (tag) {
+        case 1 -> {
+          utf8Offsets[i] = buffer.position();
+          skip(buffer, Short.toUnsignedInt(buffer.getShort()));
+        }
+        case 7 -> classNameIndices[i] = Short.toUnsignedInt(buffer.getShort());
+        case 8, 16, 19, 20 -> skip(buffer, 2);
+        case 15 -> skip(buffer, 3);
+        case 3, 4, 9, 10, 11, 12, 17, 18 -> skip(buffer, 4);
+        case 5, 6 -> {
+          skip(buffer, 8);
+          i++;
+        }
+        default ->
+            throw new IllegalArgumentException(String.format("Unknown constant pool tag: %d", tag));
+      }
+    }
+
+    final var access = Short.toUnsignedInt(buffer.getShort());
+    final var thisClass = Short.toUnsignedInt(buffer.getShort());
+    final var superClass = Short.toUnsignedInt(buffer.getShort());
+
+    skip(buffer, 2 * Short.toUnsignedInt(buffer.getShort()));
+    skipMembers(buffer);
+    skipMembers(buffer);
+
+    var hosted = false;
+    final var attributeCount = Short.toUnsignedInt(buffer.getShort());
+
+    for (var i = 0; i < attributeCount; i++) {
+      final var attributeName = Short.toUnsignedInt(buffer.getShort());
+      final var length = buffer.getInt();
+      final var end = buffer.position() + length;
+
+      if (utf8Equals(buffer, utf8Offsets[attributeName], "RuntimeVisibleAnnotations")) {
+        hosted = hasAnnotation(buffer, utf8Offsets);
+      }
+
+      buffer.position(end);
+    }
+
+    final var name = className(buffer, utf8Offsets, classNameIndices, thisClass);
+    final var superName =
+        superClass == 0 ? null : className(buffer, utf8Offsets, classNameIndices, superClass);
+    final var concrete = (access & (ACC_INTERFACE | ACC_ABSTRACT)) == 0;
+
+    return new ClassSummary(name, superName, hosted, concrete);
+  }
+
+  private static boolean hasAnnotation(ByteBuffer buffer, int[] utf8Offsets) {
+    final var count = Short.toUnsignedInt(buffer.getShort());
+
+    for (var i = 0; i < count; i++) {
+      final var typeIndex = Short.toUnsignedInt(buffer.getShort());
+
+      if (utf8Equals(buffer, utf8Offsets[typeIndex], HOSTED_DESCRIPTOR)) {
+        return true;
+      }
+
+      skipElementValuePairs(buffer);
+    }
+
+    return false;
+  }
+
+  private static void skipElementValuePairs(ByteBuffer buffer) {
+    final var pairs = Short.toUnsignedInt(buffer.getShort());
+
+    for (var i = 0; i < pairs; i++) {
+      skip(buffer, 2);
+      skipElementValue(buffer);
+    }
+  }
+
+  private static void skipElementValue(ByteBuffer buffer) {
+    final var tag = (char) buffer.get();
+
+    switch (tag) {
+      case 'B', 'C', 'D', 'F', 'I', 'J', 'S', 'Z', 's', 'c' -> skip(buffer, 2);
+      case 'e' -> skip(buffer, 4);
+      case '@' -> {
+        skip(buffer, 2);
+        skipElementValuePairs(buffer);
+      }
+      case '[' -> {
+        final var values = Short.toUnsignedInt(buffer.getShort());
+
+        for (var i = 0; i < values; i++) {
+          skipElementValue(buffer);
+        }
+      }
+      default ->
+          throw new IllegalArgumentException(String.format("Unknown element value tag: %c", tag));
+    }
+  }
+
+  private static void skipMembers(ByteBuffer buffer) {
+    final var count = Short.toUnsignedInt(buffer.getShort());
+
+    for (var i = 0; i < count; i++) {
+      // NOTE(garrett): Access flags, name and descriptor indices
+      skip(buffer, 6);
+
+      final var attributes = Short.toUnsignedInt(buffer.getShort());
+
+      for (var j = 0; j < attributes; j++) {
+        skip(buffer, 2);
+        skip(buffer, buffer.getInt());
+      }
+    }
+  }
+
+  private static void skip(ByteBuffer buffer, int bytes) {
+    buffer.position(buffer.position() + bytes);
+  }
+
+  private static boolean utf8Equals(ByteBuffer buffer, int offset, String expected) {
+    return utf8Equals(buffer, offset, expected.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private static boolean utf8Equals(ByteBuffer buffer, int offset, byte[] expected) {
+    if (offset == 0 || Short.toUnsignedInt(buffer.getShort(offset)) != expected.length) {
+      return false;
+    }
+
+    for (var i = 0; i < expected.length; i++) {
+      if (buffer.get(offset + 2 + i) != expected[i]) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  // NOTE(garrett): Class names are plain ASCII in practice, anything outside
+  // of that simply fails to match a plugin and is loaded as normal
+  private static String className(
+      ByteBuffer buffer, int[] utf8Offsets, int[] classNameIndices, int classIndex) {
+    final var offset = utf8Offsets[classNameIndices[classIndex]];
+
+    if (offset == 0) {
+      throw new IllegalArgumentException("Class entry does not reference a name");
+    }
+
+    final var bytes = new byte[Short.toUnsignedInt(buffer.getShort(offset))];
+    buffer.get(offset + 2, bytes);
+
+    return new String(bytes, StandardCharsets.UTF_8).replace('/', '.');
+  }
+}
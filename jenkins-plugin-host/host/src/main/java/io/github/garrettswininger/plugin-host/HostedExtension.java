@@ -0,0 +1,9 @@
+package io.github.garrettswininger.pluginhost;
+
+import hudson.ExtensionPoint;
+
+/**
+ * An extension contributed by a hosted JAR, along with what decides its place in the extension
+ * list. The sort key only breaks ties left by the ordinal and implementation class name.
+ */
+record HostedExtension(ExtensionPoint instance, double ordinal, String sortKey) {}
@@ -7,40 +7,235 @@ import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
 
 import hudson.Extension;
 import hudson.model.RootAction;
+import jakarta.servlet.http.HttpServletResponse;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.time.LocalDateTime;
-import java.time.temporal.ChronoUnit;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.DelayQueue;
-import java.util.concurrent.Delayed;
+import java.util.Map;
+import java.util.SortedMap;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
-import java.util.stream.Stream;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+import org.kohsuke.stapler.StaplerRequest2;
+import org.kohsuke.stapler.StaplerResponse2;
+import org.kohsuke.stapler.verb.GET;
+import org.kohsuke.stapler.verb.POST;
 
 @Extension
 public final class HostedPluginFileSystemWatcher implements RootAction {
   private static final Logger LOGGER =
       Logger.getLogger(HostedPluginFileSystemWatcher.class.getName());
 
-  private static final AutoloadRegistry registry = new AutoloadRegistry();
-
-  private static final ConcurrentHashMap<Path, AutoloadEvent> operationsMap =
-      new ConcurrentHashMap<>();
+  /** Number of hosted JARs prepared concurrently during controller startup. */
+  private static final int STARTUP_PARALLELISM =
+      SystemProperties.getInteger(
+          HostedPluginFileSystemWatcher.class.getName() + ".startupParallelism",
+          Runtime.getRuntime().availableProcessors());
+
+  /** How long a file must stop changing before its pending event fires. */
+  private static final long QUIET_PERIOD_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(
+          SystemProperties.getLong(
+              HostedPluginFileSystemWatcher.class.getName() + ".quietPeriodMillis", 500L));
+
+  /** Upper bound on how long an event waits for a file that keeps changing. */
+  private static final long MAX_SETTLE_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(
+          SystemProperties.getLong(
+              HostedPluginFileSystemWatcher.class.getName() + ".maxSettleMillis", 30000L));
+
+  /** Number of paths whose events may be processed at the same time. */
+  private static final int EVENT_PARALLELISM =
+      SystemProperties.getInteger(
+          HostedPluginFileSystemWatcher.class.getName() + ".eventParallelism",
+          Runtime.getRuntime().availableProcessors());
+
+  /** Number of queued or running operations before the event handler stops taking more. */
+  private static final int MAX_PENDING_OPERATIONS =
+      SystemProperties.getInteger(
+          HostedPluginFileSystemWatcher.class.getName() + ".maxPendingOperations", 256);
+
+  /** How long a retired class loader may stay reachable before it is reported as a leak. */
+  private static final long LEAK_GRACE_PERIOD_NANOS =
+      TimeUnit.SECONDS.toNanos(
+          SystemProperties.getLong(
+              HostedPluginFileSystemWatcher.class.getName() + ".leakGracePeriodSeconds", 300L));
+
+  /**
+   * Whether suspected leaks are followed by a search for the reference keeping the loader alive in
+   * extension lists and threads.
+   */
+  private static final boolean LEAK_DIAGNOSTICS =
+      SystemProperties.getBoolean(
+          HostedPluginFileSystemWatcher.class.getName() + ".leakDiagnostics", false);
+
+  /**
+   * Whether diagnostics that find no reference write a heap dump of live objects under {@code
+   * hosted-plugins/leaks}. Each dump is as large as the used heap and pauses the controller while
+   * it is written, so this is off even when diagnostics are on.
+   */
+  private static final boolean LEAK_HEAP_DUMPS =
+      SystemProperties.getBoolean(
+          HostedPluginFileSystemWatcher.class.getName() + ".leakHeapDumps", false);
+
+  /**
+   * How changes to the autoload directory are noticed: {@code native} uses the platform watch
+   * service, {@code polling} stats the directory on an interval, for network file systems where the
+   * watch service misses events.
+   */
+  private static final String WATCH_BACKEND =
+      SystemProperties.getString(
+          HostedPluginFileSystemWatcher.class.getName() + ".watchBackend", "native");
+
+  /** How often the polling backend stats the autoload directory. */
+  private static final long POLL_INTERVAL_NANOS =
+      TimeUnit.MILLISECONDS.toNanos(
+          SystemProperties.getLong(
+              HostedPluginFileSystemWatcher.class.getName() + ".pollIntervalMillis", 2000L));
+
+  /**
+   * Further directories to autoload JARs from, separated by the platform path separator. {@code
+   * hosted-plugins/autoload} is always a root. Directories nested in a root are watched as well.
+   */
+  private static final String AUTOLOAD_ROOTS =
+      SystemProperties.getString(
+          HostedPluginFileSystemWatcher.class.getName() + ".autoloadRoots", "");
+
+  /** Largest JAR accepted by the upload endpoint. */
+  private static final long MAX_UPLOAD_BYTES =
+      SystemProperties.getLong(
+          HostedPluginFileSystemWatcher.class.getName() + ".maxUploadBytes", 256L << 20);
+
+  /** How long a hosted plugin's constructors may run before its JAR is treated as failed. */
+  private static final long INSTANTIATION_TIMEOUT_NANOS =
+      TimeUnit.SECONDS.toNanos(
+          SystemProperties.getLong(
+              HostedPluginFileSystemWatcher.class.getName() + ".instantiationTimeoutSeconds", 30L));
+
+  /**
+   * Number of threads running hosted plugin constructors. A constructor that ignores the timeout's
+   * interrupt keeps its thread, those are listed as stuck in the status output.
+   */
+  private static final int INSTANTIATION_THREADS =
+      SystemProperties.getInteger(
+          HostedPluginFileSystemWatcher.class.getName() + ".instantiationThreads",
+          2 * Runtime.getRuntime().availableProcessors());
+
+  /** How long contents that failed to register are first held back, doubling on each failure. */
+  private static final long QUARANTINE_BACKOFF_NANOS =
+      TimeUnit.SECONDS.toNanos(
+          SystemProperties.getLong(
+              HostedPluginFileSystemWatcher.class.getName() + ".quarantineBackoffSeconds", 60L));
+
+  /** Upper bound on how long failed contents are held back. */
+  private static final long QUARANTINE_MAX_BACKOFF_NANOS =
+      TimeUnit.SECONDS.toNanos(
+          SystemProperties.getLong(
+              HostedPluginFileSystemWatcher.class.getName() + ".quarantineMaxBackoffSeconds",
+              3600L));
+
+  /** Number of deregistered or replaced registrations kept for a JAR that comes back unchanged. */
+  private static final int RETAINED_REGISTRATIONS =
+      SystemProperties.getInteger(
+          HostedPluginFileSystemWatcher.class.getName() + ".retainedRegistrations", 16);
+
+  /**
+   * Upper bound on the JAR images held by retained registrations together. Each retained loader
+   * keeps its whole JAR in memory, so this caps what retention costs in heap.
+   */
+  private static final long RETAINED_REGISTRATION_BYTES =
+      SystemProperties.getLong(
+          HostedPluginFileSystemWatcher.class.getName() + ".retainedRegistrationBytes", 64L << 20);
+
+  /** How long a deregistered or replaced registration is kept before its loader is closed. */
+  private static final long RETAINED_REGISTRATION_NANOS =
+      TimeUnit.SECONDS.toNanos(
+          SystemProperties.getLong(
+              HostedPluginFileSystemWatcher.class.getName() + ".retainedRegistrationSeconds",
+              300L));
+
+  private static final HostedPluginMetrics metrics = new HostedPluginMetrics();
+
+  private static final AutoloadRoots autoloadRoots =
+      new AutoloadRoots(getAutoloadDirectory().toPath(), AutoloadRoots.parse(AUTOLOAD_ROOTS));
+
+  private static final RetiredLoaderTracker retiredLoaders =
+      new RetiredLoaderTracker(
+          getDataDirectory().toPath().resolve("leaks"),
+          LEAK_GRACE_PERIOD_NANOS,
+          LEAK_DIAGNOSTICS,
+          LEAK_HEAP_DUMPS,
+          ExtensionListBatch.JENKINS);
+
+  private static final SharedLibraryPool libraries =
+      new SharedLibraryPool(
+          getLibrariesDirectory().toPath(),
+          HostedPluginFileSystemWatcher.class.getClassLoader(),
+          retiredLoaders);
+
+  private static final PluginQuarantine quarantine =
+      new PluginQuarantine(QUARANTINE_BACKOFF_NANOS, QUARANTINE_MAX_BACKOFF_NANOS);
+
+  private static final AutoloadRegistry registry =
+      new AutoloadRegistry(
+          getDataDirectory().toPath(),
+          metrics,
+          ExtensionListBatch.JENKINS,
+          retiredLoaders,
+          libraries,
+          quarantine,
+          new AutoloadRegistry.Settings(
+              INSTANTIATION_TIMEOUT_NANOS,
+              INSTANTIATION_THREADS,
+              RETAINED_REGISTRATIONS,
+              RETAINED_REGISTRATION_BYTES,
+              RETAINED_REGISTRATION_NANOS,
+              true));
+
+  private static final AutoloadScheduler scheduler =
+      new AutoloadScheduler(QUIET_PERIOD_NANOS, MAX_SETTLE_NANOS);
+
+  private static final PathSerialExecutor executor =
+      new PathSerialExecutor(
+          "Jenkins-Plugin-Host-Event-Worker", EVENT_PARALLELISM, MAX_PENDING_OPERATIONS);
+
+  // NOTE(garrett): Staging must be on the same file system as the autoload
+  // directory for the final move to be atomic, hence a sibling directory
+  private static final AutoloadUploader uploader =
+      new AutoloadUploader(
+          getStagingDirectory().toPath(), autoloadRoots.primary(), MAX_UPLOAD_BYTES);
+
+  private static File getDataDirectory() {
+    return new File(Jenkins.get().getRootDir(), "hosted-plugins");
+  }
 
-  private static final DelayQueue<AutoloadEvent> operationsQueue = new DelayQueue<>();
+  private static File getLibrariesDirectory() {
+    return new File(getDataDirectory(), "libraries");
+  }
 
-  private File getDataDirectory() {
-    return new File(Jenkins.get().getRootDir(), "hosted-plugins");
+  private static File getStagingDirectory() {
+    return new File(getDataDirectory(), "staging");
   }
 
-  private File getAutoloadDirectory() {
-    return new File(this.getDataDirectory(), "autoload");
+  private static File getAutoloadDirectory() {
+    return new File(getDataDirectory(), "autoload");
   }
 
   private void createDirectoryIfNotExists(File dir) {
@@ -74,31 +269,160 @@ public final class HostedPluginFileSystemWatcher implements RootAction {
 
   @Override
   public String getUrlName() {
-    return null;
+    return "hosted-plugins";
+  }
+
+  @GET
+  public void doStatus(StaplerRequest2 req, StaplerResponse2 rsp) throws IOException {
+    Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+
+    final var status = metrics.toJson();
+    final var queue = new JSONObject();
+
+    queue.element("scheduled", scheduler.pendingCount());
+    queue.element("executing", executor.pendingCount());
+    status.element("queue", queue);
+    status.element("watchBackend", WATCH_BACKEND);
+    status.element("autoloadRoots", autoloadRoots.roots().stream().map(Path::toString).toList());
+    status.element("retiredLoaders", retiredLoaders.toJson());
+
+    final var registrations = new JSONArray();
+
+    registry
+        .getRegistrations()
+        .forEach(
+            (path, registration) -> {
+              final var extensions = new JSONObject();
+
+              registration
+                  .extensions()
+                  .forEach(
+                      (extensionType, instances) -> {
+                        final var implementations = new JSONArray();
+
+                        instances.forEach(
+                            extension ->
+                                implementations.add(extension.instance().getClass().getName()));
+                        extensions.element(extensionType.getName(), implementations);
+                      });
+
+              final var entry = new JSONObject();
+
+              entry.element("path", path.toString());
+              entry.element("digest", HexFormat.of().formatHex(registration.digest()));
+              entry.element("extensions", extensions);
+              entry.element("loadedClasses", registration.loader().loadedClassCount());
+              entry.element("retainedBytes", registration.loader().retainedBytes());
+              entry.element("imageBytes", registration.loader().imageBytes());
+              entry.element(
+                  "libraries",
+                  registration.loader().libraries().stream()
+                      .map(SharedLibraryPool.Library::digestHex)
+                      .toList());
+              entry.element("timings", metrics.timingsToJson(path));
+              registrations.add(entry);
+            });
+
+    status.element("registrations", registrations);
+
+    final var bundles = new JSONArray();
+
+    registry
+        .getBundles()
+        .forEach(
+            (path, bundle) -> {
+              final var entry = new JSONObject();
+
+              entry.element("path", path.toString());
+              entry.element("digest", HexFormat.of().formatHex(bundle.digest()));
+              entry.element("members", bundle.members().stream().map(Path::toString).toList());
+              bundles.add(entry);
+            });
+
+    status.element("bundles", bundles);
+    status.element("libraries", libraries.toJson());
+    status.element("quarantined", quarantine.toJson());
+    status.element("instantiation", registry.getInstantiator().toJson());
+    status.element("retained", registry.getRetained().toJson());
+
+    rsp.setContentType("application/json;charset=UTF-8");
+    rsp.getWriter().write(status.toString());
+  }
+
+  /**
+   * Deploys the request body as {@code autoload/<name>}. The JAR only appears in the autoload
+   * directory once fully written, and is registered right away instead of waiting on the watcher.
+   */
+  @POST
+  public void doUpload(StaplerRequest2 req, StaplerResponse2 rsp) throws IOException {
+    Jenkins.get().checkPermission(Jenkins.ADMINISTER);
+
+    final Path target;
+
+    try {
+      target = uploader.resolve(req.getParameter("name"));
+    } catch (IllegalArgumentException ex) {
+      rsp.sendError(HttpServletResponse.SC_BAD_REQUEST, ex.getMessage());
+      return;
+    }
+
+    final AutoloadUploader.Upload upload;
+
+    try {
+      upload = uploader.upload(target, req.getInputStream());
+    } catch (IOException ex) {
+      LOGGER.warning(String.format("Failed to stage upload of %s: %s", target, ex.getMessage()));
+
+      rsp.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR, ex.getMessage());
+      return;
+    }
+
+    LOGGER.info(String.format("Received upload of %s (%d bytes)", target, upload.size()));
+
+    try {
+      executor.execute(target, () -> registry.deploy(target, upload.identity()));
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+
+      // NOTE(garrett): The JAR is in place, the watcher still picks it up
+      rsp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Interrupted queuing registration");
+      return;
+    }
+
+    final var result = new JSONObject();
+
+    result.element("path", target.toString());
+    result.element("size", upload.size());
+    result.element("digest", HexFormat.of().formatHex(upload.identity().digest()));
+
+    rsp.setStatus(HttpServletResponse.SC_ACCEPTED);
+    rsp.setContentType("application/json;charset=UTF-8");
+    rsp.getWriter().write(result.toString());
   }
 
   public void onStart() {
     final var autoloadDir = getAutoloadDirectory();
 
-    final var requiredDirs = List.of(getDataDirectory(), autoloadDir);
+    final var requiredDirs =
+        List.of(getDataDirectory(), autoloadDir, getLibrariesDirectory(), getStagingDirectory());
 
     requiredDirs.forEach(dir -> createDirectoryIfNotExists(dir));
     LOGGER.info("All required directories are present or have been created.");
 
-    try (Stream<Path> paths = Files.list(autoloadDir.toPath())) {
-      paths
-          .filter(path -> path.toFile().isFile() && path.toString().endsWith(".jar"))
-          .forEach(
-              path -> {
-                registry.register(path);
-              });
+    uploader.clean();
+
+    try {
+      final var jars = autoloadRoots.enumerate(STARTUP_PARALLELISM);
+
+      registry.registerAll(List.copyOf(jars.keySet()), STARTUP_PARALLELISM);
     } catch (IOException ex) {
       LOGGER.warning(
-          String.format("Failed to list contents of %s for plugin startup loading", autoloadDir));
+          String.format(
+              "Failed to list autoload roots for plugin startup loading: %s", ex.getMessage()));
     }
 
     final var dirWatcherDaemon =
-        new Thread(new AutoloadDirectoryWatcher(), "Jenkins-Plugin-Host-FS-Watcher");
+        new Thread(createDirectoryMonitor(), "Jenkins-Plugin-Host-FS-Watcher");
 
     dirWatcherDaemon.setDaemon(true);
     dirWatcherDaemon.start();
@@ -108,57 +432,80 @@ public final class HostedPluginFileSystemWatcher implements RootAction {
 
     entryHandler.setDaemon(true);
     entryHandler.start();
-  }
 
-  private enum AutoloadEventAction {
-    REGISTER,
-    DEREGISTER,
-    RELOAD
+    final var leakDetector =
+        new Thread(new RetiredLoaderMonitor(), "Jenkins-Plugin-Host-Leak-Detector");
+
+    leakDetector.setDaemon(true);
+    leakDetector.start();
   }
 
-  private record AutoloadEvent(AutoloadEventAction action, LocalDateTime expiry, Path path)
-      implements Delayed {
-    @Override
-    public int compareTo(Delayed event) {
-      return Long.valueOf(this.getDelay(TimeUnit.NANOSECONDS))
-          .compareTo(event.getDelay(TimeUnit.NANOSECONDS));
+  private Runnable createDirectoryMonitor() {
+    switch (WATCH_BACKEND) {
+      case "native":
+        return new AutoloadDirectoryWatcher();
+      case "polling":
+        return new AutoloadDirectoryPoller();
+      default:
+        LOGGER.warning(
+            String.format("Unknown watch backend %s, using the native watcher", WATCH_BACKEND));
+
+        return new AutoloadDirectoryWatcher();
     }
+  }
+
+  private static class RetiredLoaderMonitor implements Runnable {
+    // NOTE(garrett): A grace period of zero reports on the next check, it
+    // must not turn the check into a busy loop
+    private static final long CHECK_INTERVAL_NANOS =
+        Math.max(
+            TimeUnit.SECONDS.toNanos(1),
+            Math.min(LEAK_GRACE_PERIOD_NANOS, TimeUnit.MINUTES.toNanos(1)));
 
     @Override
-    public long getDelay(TimeUnit unit) {
-      /**
-       * NOTE(garrett): The DelayQueue<?> contract enforces that this is only called with
-       * TimeUnit.NANOSECONDS so we don't have to handle other values.
-       */
-      return ChronoUnit.NANOS.between(LocalDateTime.now(), this.expiry);
+    public void run() {
+      while (true) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(CHECK_INTERVAL_NANOS);
+
+          registry.getRetained().expire();
+          retiredLoaders.check();
+        } catch (InterruptedException ex) {
+          LOGGER.severe("Leak detector thread interrupt, retired loaders no longer checked.");
+
+          return;
+        }
+      }
     }
   }
 
   private class AutoloadEventHandler implements Runnable {
+    private void dispatch(AutoloadScheduler.AutoloadEvent event) {
+      final var path = event.path();
+      final var action = event.action();
+
+      LOGGER.info(String.format("Action triggered: %s (%s)", path.toString(), action.toString()));
+
+      switch (action) {
+        case REGISTER:
+          registry.register(path);
+          break;
+        case DEREGISTER:
+          registry.deregister(path);
+          break;
+        case RELOAD:
+          registry.reload(path);
+          break;
+      }
+    }
+
     @Override
     public void run() {
       while (true) {
         try {
-          final var event = operationsQueue.take();
-          final var path = event.path();
-          operationsMap.remove(path);
-
-          final var action = event.action();
-
-          LOGGER.info(
-              String.format("Action triggered: %s (%s)", path.toString(), action.toString()));
-
-          switch (action) {
-            case REGISTER:
-              registry.register(path);
-              break;
-            case DEREGISTER:
-              registry.deregister(path);
-              break;
-            case RELOAD:
-              registry.reload(path);
-              break;
-          }
+          final var event = scheduler.take();
+
+          executor.execute(event.path(), () -> dispatch(event));
         } catch (InterruptedException ex) {
           LOGGER.severe("Event handler thread interrupt, hosted plugins now frozen.");
         }
@@ -166,86 +513,237 @@ public final class HostedPluginFileSystemWatcher implements RootAction {
     }
   }
 
-  private class AutoloadDirectoryWatcher implements Runnable {
-    private AutoloadEvent coalesceEvents(AutoloadEvent previous, AutoloadEventAction action) {
-      final var path = previous.path();
-      final var prevAction = previous.action();
-      operationsQueue.remove(previous);
+  /**
+   * Base for the watcher backends, which only differ in how they notice changes. Both feed the same
+   * scheduler, so events are coalesced the same way whichever backend found them.
+   */
+  private abstract class AutoloadDirectoryMonitor implements Runnable {
+    private final AutoloadReconciler reconciler =
+        new AutoloadReconciler(autoloadRoots, STARTUP_PARALLELISM);
 
-      AutoloadEventAction newAction = null;
+    /** Queues whatever the registry is missing compared to the autoload roots. */
+    protected void resync(String reason) {
+      final SortedMap<Path, AutoloadEventAction> actions;
 
-      switch (prevAction) {
-        case REGISTER:
-          switch (action) {
-            case REGISTER:
-              throw new IllegalStateException("Encountered duplicate registration events");
-            case DEREGISTER:
-              LOGGER.info(
-                  String.format("Registration no longer applicable for %s", path.toString()));
-
-              return null;
-            case RELOAD:
-              newAction = AutoloadEventAction.REGISTER;
-              break;
-          }
+      try {
+        actions = this.reconciler.reconcile(registry.getFingerprints());
+      } catch (IOException ex) {
+        LOGGER.warning(
+            String.format("Failed to resync autoload roots (%s): %s", reason, ex.getMessage()));
 
-          break;
-        case DEREGISTER:
-          switch (action) {
-            case REGISTER:
-              // TODO(garrett): Some form of hash check to handle
-              LOGGER.warning("Re-registration after deletion currently unsupported");
-
-              return null;
-            case DEREGISTER:
-              throw new IllegalStateException("Encountered duplicate deregistration events");
-            case RELOAD:
-              throw new IllegalStateException("Encountered modification after deletion");
-          }
+        return;
+      }
 
-          break;
-        case RELOAD:
-          switch (action) {
-            case REGISTER:
-              throw new IllegalStateException("Encountered registration after modification");
-            case DEREGISTER:
-              newAction = AutoloadEventAction.DEREGISTER;
-              break;
-            case RELOAD:
-              newAction = AutoloadEventAction.RELOAD;
-              break;
-          }
+      actions.forEach(
+          (path, action) -> {
+            try {
+              scheduler.submit(path, action);
+            } catch (RuntimeException ex) {
+              LOGGER.severe(String.format("Failed to queue %s for %s: %s", action, path, ex));
+            }
+          });
+      metrics.eventsReconciled(actions.size());
 
-          break;
+      LOGGER.info(
+          String.format("Resynced autoload roots (%s), %d events queued", reason, actions.size()));
+    }
+  }
+
+  /**
+   * Watches every root and every directory nested in one through a single watch service. Each watch
+   * key maps back to its directory, so routing an event is one lookup however many directories are
+   * watched, and directories created later are watched as they appear.
+   */
+  private class AutoloadDirectoryWatcher extends AutoloadDirectoryMonitor {
+    // NOTE(garrett): Both maps are only touched from the watching thread
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+
+    private final Map<Path, WatchKey> keys = new HashMap<>();
+
+    /** Watches {@code start} and every directory below it, returning the JARs found on the way. */
+    private List<Path> watchTree(WatchService watcher, Path start) throws IOException {
+      final List<Path> jars = new ArrayList<>();
+
+      Files.walkFileTree(
+          start,
+          new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attributes)
+                throws IOException {
+              if (keys.containsKey(dir)) {
+                return FileVisitResult.CONTINUE;
+              }
+
+              final WatchKey key;
+
+              try {
+                key = dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+              } catch (NoSuchFileException ex) {
+                return FileVisitResult.SKIP_SUBTREE;
+              }
+
+              directories.put(key, dir);
+              keys.put(dir, key);
+
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+              if (file.getFileName().toString().endsWith(".jar") && Files.isRegularFile(file)) {
+                jars.add(file);
+              }
+
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) throws IOException {
+              if (ex instanceof NoSuchFileException) {
+                return FileVisitResult.CONTINUE;
+              }
+
+              throw ex;
+            }
+          });
+
+      return jars;
+    }
+
+    /** Watches every root, skipping directories already watched. */
+    private void watchRoots(WatchService watcher) {
+      for (final var root : autoloadRoots.roots()) {
+        if (!Files.isDirectory(root)) {
+          LOGGER.warning(String.format("Autoload root %s is not a directory, not watching", root));
+
+          continue;
+        }
+
+        try {
+          this.watchTree(watcher, root);
+        } catch (IOException ex) {
+          LOGGER.warning(
+              String.format("Failed to watch autoload root %s: %s", root, ex.getMessage()));
+        }
       }
+    }
 
-      if (newAction == null) {
-        throw new IllegalStateException(
-            String.format(
-                "Coalescing returned an invalid state (%s followed by %s)",
-                prevAction.toString(), action.toString()));
+    /** Stops watching {@code directory} and everything below it. */
+    private void unwatch(Path directory) {
+      final var iterator = this.keys.entrySet().iterator();
+
+      while (iterator.hasNext()) {
+        final var entry = iterator.next();
+
+        if (entry.getKey().startsWith(directory)) {
+          entry.getValue().cancel();
+          this.directories.remove(entry.getValue());
+          iterator.remove();
+        }
+      }
+    }
+
+    /**
+     * Handles a directory appearing inside a watched one. JARs can land in it before its watch is
+     * registered, so whatever is already there is queued for registration.
+     */
+    private void directoryCreated(WatchService watcher, Path directory) {
+      final List<Path> jars;
+
+      try {
+        jars = this.watchTree(watcher, directory);
+      } catch (IOException ex) {
+        LOGGER.warning(
+            String.format("Failed to watch new directory %s: %s", directory, ex.getMessage()));
+
+        return;
       }
 
       LOGGER.info(
           String.format(
-              "Coalesced existing event for %s (%s, %s => %s)",
-              path.toString(), prevAction.toString(), action.toString(), newAction.toString()));
+              "Watching new directory %s, %d JARs already present", directory, jars.size()));
+
+      // NOTE(garrett): The new directory's own watch may already have queued
+      // some of these, the scheduler folds the duplicates into one event
+      jars.forEach(
+          jar -> metrics.eventReceived(scheduler.submit(jar, AutoloadEventAction.REGISTER)));
+    }
+
+    /**
+     * Handles a watched directory being removed or moved away. A move only reports the directory
+     * itself, so everything registered from below it is deregistered here.
+     */
+    private void directoryDeleted(Path directory) {
+      this.unwatch(directory);
+
+      final var registered = registry.getFingerprints();
+
+      // NOTE(garrett): Removing a tree also reports each JAR's deletion on
+      // the subdirectory's own key, those merge with these in the scheduler.
+      // Bundle members go away with their bundle, covered by the same prefix
+      registered.keySet().stream()
+          .filter(path -> path.startsWith(directory))
+          .filter(path -> !registered.containsKey(path.getParent()))
+          .forEach(
+              path ->
+                  metrics.eventReceived(scheduler.submit(path, AutoloadEventAction.DEREGISTER)));
+
+      LOGGER.info(String.format("Stopped watching removed directory %s", directory));
+    }
+
+    /** Turns one event in a watched directory into work for the scheduler. */
+    private void dispatch(WatchService watcher, Path path, WatchEvent.Kind<?> kind) {
+      if (kind == ENTRY_CREATE && Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+        this.directoryCreated(watcher, path);
+
+        return;
+      }
+
+      if (kind == ENTRY_DELETE && this.keys.containsKey(path)) {
+        this.directoryDeleted(path);
+
+        return;
+      }
+
+      final var isDirectory = Files.isDirectory(path);
+      final var hasExtension = path.getFileName().toString().endsWith(".jar");
+
+      final var isApplicable = hasExtension && !isDirectory;
 
-      final var newEvent = new AutoloadEvent(newAction, LocalDateTime.now().plusSeconds(30), path);
+      if (!isApplicable) {
+        return;
+      }
+
+      final AutoloadEventAction action =
+          (kind == ENTRY_CREATE)
+              ? AutoloadEventAction.REGISTER
+              : (kind == ENTRY_DELETE)
+                  ? AutoloadEventAction.DEREGISTER
+                  : (kind == ENTRY_MODIFY) ? AutoloadEventAction.RELOAD : null;
+
+      if (action == null) {
+        throw new IllegalStateException(
+            String.format("Encountered an unexpected FS event type: %s", kind.toString()));
+      }
 
-      operationsQueue.put(newEvent);
-      return newEvent;
+      metrics.eventReceived(scheduler.submit(path, action));
     }
 
     @Override
     public void run() {
-      final var autoloadDir = getAutoloadDirectory();
       final var fs = FileSystems.getDefault();
 
       try (final var watcher = fs.newWatchService()) {
-        autoloadDir.toPath().register(watcher, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+        this.watchRoots(watcher);
 
-        LOGGER.info("Hosted plugin autoloading now operational.");
+        // NOTE(garrett): Catches anything that changed between startup
+        // registration and the watches being registered
+        resync("watch started");
+
+        LOGGER.info(
+            String.format(
+                "Hosted plugin autoloading now operational, watching %d directories.",
+                this.directories.size()));
 
         while (true) {
           try {
@@ -255,59 +753,49 @@ public final class HostedPluginFileSystemWatcher implements RootAction {
               continue;
             }
 
+            final var directory = this.directories.get(key);
+            var overflowed = false;
+
             for (final var event : key.pollEvents()) {
               final var kind = event.kind();
 
               if (kind == OVERFLOW) {
-                LOGGER.warning("Overflow - Some events not delivered");
+                LOGGER.warning("Overflow - Some events not delivered, resyncing");
+                metrics.eventsOverflowed();
+                overflowed = true;
 
                 continue;
               }
 
-              final var path = autoloadDir.toPath().resolve((Path) event.context());
-
-              final var isDirectory = Files.isDirectory(path);
-              final var hasExtension = path.getFileName().toString().endsWith(".jar");
-
-              final var isApplicable = hasExtension && !isDirectory;
-
-              if (!isApplicable) {
+              // NOTE(garrett): Events can still be queued on a key cancelled
+              // after its directory was removed
+              if (directory == null) {
                 continue;
               }
 
-              final AutoloadEventAction action =
-                  (kind == ENTRY_CREATE)
-                      ? AutoloadEventAction.REGISTER
-                      : (kind == ENTRY_DELETE)
-                          ? AutoloadEventAction.DEREGISTER
-                          : (kind == ENTRY_MODIFY) ? AutoloadEventAction.RELOAD : null;
+              final var path = directory.resolve((Path) event.context());
 
-              if (action == null) {
-                throw new IllegalStateException(
-                    String.format("Encountered an unexpected FS event type: %s", kind.toString()));
+              // NOTE(garrett): One bad event must not take the watching thread,
+              // and with it hot reloading, down
+              try {
+                this.dispatch(watcher, path, kind);
+              } catch (RuntimeException ex) {
+                LOGGER.severe(
+                    String.format("Failed to handle %s event for %s: %s", kind, path, ex));
               }
+            }
 
-              operationsMap.compute(
-                  path,
-                  ((pathKey, mappedEvent) -> {
-                    if (mappedEvent != null) {
-                      return coalesceEvents(mappedEvent, action);
-                    } else {
-                      LOGGER.info(
-                          String.format(
-                              "New event detected for %s (%s)",
-                              path.toString(), action.toString()));
-
-                      final var newEvent =
-                          new AutoloadEvent(action, LocalDateTime.now().plusSeconds(30), path);
-
-                      operationsQueue.put(newEvent);
-                      return newEvent;
-                    }
-                  }));
+            if (overflowed) {
+              // NOTE(garrett): Lost events may include new directories, which
+              // need watching before the resync looks inside them
+              this.watchRoots(watcher);
+              resync("overflow");
             }
 
-            key.reset();
+            if (!key.reset() && directory != null) {
+              this.directories.remove(key);
+              this.keys.remove(directory, key);
+            }
           } catch (InterruptedException ex) {
             LOGGER.severe("Watching thread interrupt, hosted plugins now frozen.");
           }
@@ -318,4 +806,52 @@ public final class HostedPluginFileSystemWatcher implements RootAction {
       }
     }
   }
+
+  private class AutoloadDirectoryPoller extends AutoloadDirectoryMonitor {
+    private final AutoloadDirectoryScanner scanner = new AutoloadDirectoryScanner(autoloadRoots);
+
+    private void poll() {
+      final SortedMap<Path, AutoloadEventAction> actions;
+
+      try {
+        actions = this.scanner.scan();
+      } catch (IOException ex) {
+        LOGGER.warning(String.format("Failed to scan autoload roots: %s", ex.getMessage()));
+
+        return;
+      }
+
+      actions.forEach((path, action) -> metrics.eventReceived(scheduler.submit(path, action)));
+    }
+
+    @Override
+    public void run() {
+      // NOTE(garrett): The first scan only establishes the baseline, the
+      // resync then catches whatever startup registration missed before it
+      try {
+        this.scanner.scan();
+      } catch (IOException ex) {
+        LOGGER.warning(String.format("Failed to scan autoload roots: %s", ex.getMessage()));
+      }
+
+      resync("polling started");
+
+      LOGGER.info(
+          String.format(
+              "Hosted plugin autoloading now operational, polling every %d ms.",
+              TimeUnit.NANOSECONDS.toMillis(POLL_INTERVAL_NANOS)));
+
+      while (true) {
+        try {
+          TimeUnit.NANOSECONDS.sleep(POLL_INTERVAL_NANOS);
+        } catch (InterruptedException ex) {
+          LOGGER.severe("Polling thread interrupt, hosted plugins now frozen.");
+
+          return;
+        }
+
+        poll();
+      }
+    }
+  }
 }
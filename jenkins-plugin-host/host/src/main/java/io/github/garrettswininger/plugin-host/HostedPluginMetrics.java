@@ -0,0 +1,123 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import net.sf.json.JSONObject;
+
+/**
+ * Counters and latency histograms for the autoload pipeline, shared by the watcher and registry.
+ */
+final class HostedPluginMetrics {
+  enum Phase {
+    DIGEST("digest"),
+    SCAN("scan"),
+    CLASS_LOADING("classLoading"),
+    INSTANTIATION("instantiation"),
+    LAZY_INSTANTIATION("lazyInstantiation"),
+    EXTENSION_INSERTION("extensionInsertion");
+
+    final String key;
+
+    Phase(String key) {
+      this.key = key;
+    }
+  }
+
+  private final LongAdder eventsReceived = new LongAdder();
+  private final LongAdder eventsCoalesced = new LongAdder();
+  private final LongAdder eventsOverflowed = new LongAdder();
+  private final LongAdder eventsReconciled = new LongAdder();
+
+  private final Map<Phase, LatencyHistogram> latencies = new EnumMap<>(Phase.class);
+
+  private final Map<Path, Map<Phase, Long>> jarTimings = new ConcurrentHashMap<>();
+
+  HostedPluginMetrics() {
+    for (final var phase : Phase.values()) {
+      this.latencies.put(phase, new LatencyHistogram());
+    }
+  }
+
+  void eventReceived(boolean coalesced) {
+    this.eventsReceived.increment();
+
+    if (coalesced) {
+      this.eventsCoalesced.increment();
+    }
+  }
+
+  void eventsOverflowed() {
+    this.eventsOverflowed.increment();
+  }
+
+  void eventsReconciled(int count) {
+    this.eventsReconciled.add(count);
+  }
+
+  void record(Path path, Phase phase, long nanos) {
+    this.latencies.get(phase).record(nanos);
+    updateTiming(path, phase, nanos);
+  }
+
+  /** Records a single sample for work that covered several JARs at once, like a batch insertion. */
+  void recordShared(Collection<Path> paths, Phase phase, long nanos) {
+    this.latencies.get(phase).record(nanos);
+
+    for (final var path : paths) {
+      updateTiming(path, phase, nanos);
+    }
+  }
+
+  private void updateTiming(Path path, Phase phase, long nanos) {
+    this.jarTimings.compute(
+        path,
+        (key, current) -> {
+          final var next = new EnumMap<Phase, Long>(Phase.class);
+
+          if (current != null) {
+            next.putAll(current);
+          }
+
+          next.put(phase, nanos);
+          return Collections.unmodifiableMap(next);
+        });
+  }
+
+  void forget(Path path) {
+    this.jarTimings.remove(path);
+  }
+
+  JSONObject timingsToJson(Path path) {
+    final var json = new JSONObject();
+
+    this.jarTimings
+        .getOrDefault(path, Map.of())
+        .forEach((phase, nanos) -> json.element(phase.key + "Micros", nanos / 1000));
+
+    return json;
+  }
+
+  JSONObject toJson() {
+    final var events = new JSONObject();
+
+    events.element("received", this.eventsReceived.sum());
+    events.element("coalesced", this.eventsCoalesced.sum());
+    events.element("overflowed", this.eventsOverflowed.sum());
+    events.element("reconciled", this.eventsReconciled.sum());
+
+    final var latency = new JSONObject();
+
+    this.latencies.forEach((phase, histogram) -> latency.element(phase.key, histogram.toJson()));
+
+    final var json = new JSONObject();
+
+    json.element("events", events);
+    json.element("latency", latency);
+    return json;
+  }
+}
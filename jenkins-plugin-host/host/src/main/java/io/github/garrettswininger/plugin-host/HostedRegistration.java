@@ -0,0 +1,24 @@
+package io.github.garrettswininger.pluginhost;
+
+import hudson.ExtensionPoint;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+record HostedRegistration(
+    byte[] digest,
+    JarFingerprint fingerprint,
+    HostedClassLoader loader,
+    Map<Class<? extends ExtensionPoint>, List<HostedExtension>> extensions) {
+  // NOTE(garrett): Registrations are shared with lock-free readers, so they
+  // must not change once published. The copy keeps the order extensions were
+  // found in, which is the order batches install them
+  HostedRegistration {
+    final Map<Class<? extends ExtensionPoint>, List<HostedExtension>> copy = new LinkedHashMap<>();
+
+    extensions.forEach(
+        (extensionType, instances) -> copy.put(extensionType, List.copyOf(instances)));
+    extensions = Collections.unmodifiableMap(copy);
+  }
+}
@@ -0,0 +1,139 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Runs hosted plugin code against a deadline on a bounded set of threads. A task that overruns is
+ * interrupted, but a constructor that ignores interrupts keeps its thread for as long as it runs.
+ * Those tasks are tracked as stuck and reported, rather than replaced by new threads without limit.
+ */
+final class InstantiationPool {
+  private static final Logger LOGGER = Logger.getLogger(InstantiationPool.class.getName());
+
+  private record Stuck(String description, long startedNanos) {}
+
+  private final int threads;
+
+  private final ThreadPoolExecutor executor;
+
+  private final Map<Object, Stuck> stuck = new ConcurrentHashMap<>();
+
+  InstantiationPool(int threads) {
+    final var threadIds = new AtomicInteger();
+
+    this.threads = Math.max(1, threads);
+    this.executor =
+        new ThreadPoolExecutor(
+            this.threads,
+            this.threads,
+            60L,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+              final var thread =
+                  new Thread(
+                      runnable,
+                      String.format(
+                          "Jenkins-Plugin-Host-Instantiation-%d", threadIds.incrementAndGet()));
+
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Runs {@code task}, giving up once {@code deadlineNanos} passes. Throws {@link
+   * RejectedExecutionException} when the task never got a thread before the deadline, which says
+   * nothing about the plugin itself.
+   */
+  <T> T call(String description, long deadlineNanos, Callable<T> task)
+      throws ExecutionException, TimeoutException, InterruptedException {
+    final var token = new Object();
+    final var started = new AtomicBoolean();
+    final var finished = new AtomicBoolean();
+    final var startedNanos = new long[1];
+    final var future =
+        this.executor.submit(
+            () -> {
+              startedNanos[0] = System.nanoTime();
+              started.set(true);
+
+              try {
+                return task.call();
+              } finally {
+                finished.set(true);
+                this.stuck.remove(token);
+              }
+            });
+
+    try {
+      return future.get(deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+    } catch (TimeoutException ex) {
+      future.cancel(true);
+
+      if (!started.get()) {
+        throw new RejectedExecutionException(
+            String.format(
+                "No instantiation thread became free for %s, %d stuck",
+                description, this.stuck.size()));
+      }
+
+      this.stuck.put(token, new Stuck(description, startedNanos[0]));
+
+      // NOTE(garrett): The task may have finished between timing out and
+      // being recorded, in which case nothing is stuck after all
+      if (finished.get()) {
+        this.stuck.remove(token);
+      } else {
+        LOGGER.warning(
+            String.format(
+                "%s overran its deadline, %d of %d instantiation threads now stuck",
+                description, this.stuck.size(), this.threads));
+      }
+
+      throw ex;
+    } catch (InterruptedException ex) {
+      future.cancel(true);
+
+      throw ex;
+    }
+  }
+
+  JSONObject toJson() {
+    final var json = new JSONObject();
+    final var stuckTasks = new JSONArray();
+    final var now = System.nanoTime();
+
+    this.stuck
+        .values()
+        .forEach(
+            task -> {
+              final var item = new JSONObject();
+
+              item.element("task", task.description());
+              item.element(
+                  "runningSeconds", TimeUnit.NANOSECONDS.toSeconds(now - task.startedNanos()));
+              stuckTasks.add(item);
+            });
+
+    json.element("threads", this.threads);
+    json.element("busy", this.executor.getActiveCount());
+    json.element("stuck", stuckTasks);
+
+    return json;
+  }
+}
@@ -0,0 +1,99 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.Optional;
+import java.util.zip.CRC32C;
+
+/**
+ * Cheap change detection for hosted JARs. Size and modification time are checked first, then a
+ * CRC32C over the file's contents, so a cryptographic digest is only needed for new content.
+ */
+record JarFingerprint(long size, long lastModified, long contentHash) {
+  private static final int READ_BUFFER_SIZE = 1 << 16;
+
+  /**
+   * Fingerprints the file in a single pass, feeding the same bytes to {@code digest} when one is
+   * provided.
+   */
+  static JarFingerprint of(Path path, BasicFileAttributes attributes, MessageDigest digest)
+      throws IOException {
+    final var checksum = new CRC32C();
+
+    // NOTE(garrett): Read rather than mapped, a mapping keeps the file locked
+    // on Windows until it is collected, and a file truncated while mapped
+    // fails with an InternalError instead of an IOException
+    try (final var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      final var buffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+
+      while (channel.read(buffer) >= 0) {
+        buffer.flip();
+
+        if (digest != null) {
+          digest.update(buffer.duplicate());
+        }
+
+        checksum.update(buffer);
+        buffer.clear();
+      }
+    }
+
+    return new JarFingerprint(
+        attributes.size(), attributes.lastModifiedTime().toMillis(), checksum.getValue());
+  }
+
+  /** Fingerprints an image that has already been read, feeding it to {@code digest} if provided. */
+  static JarFingerprint of(JarImage image, MessageDigest digest) {
+    final var checksum = new CRC32C();
+    final var contents = image.contents();
+
+    if (digest != null) {
+      digest.update(contents.duplicate());
+    }
+
+    checksum.update(contents);
+
+    return new JarFingerprint(image.size(), image.lastModified(), checksum.getValue());
+  }
+
+  /** Same as {@link #revalidate(Path)}, for a JAR that has already been read into memory. */
+  Optional<JarFingerprint> revalidate(JarImage image) {
+    if (image.size() != this.size) {
+      return Optional.empty();
+    }
+
+    if (image.lastModified() == this.lastModified) {
+      return Optional.of(this);
+    }
+
+    final var current = of(image, null);
+
+    return current.contentHash() == this.contentHash ? Optional.of(current) : Optional.empty();
+  }
+
+  /**
+   * Returns the fingerprint of {@code path} if its content still matches this one, or empty if it
+   * has changed. The file is only hashed when its modification time moved without a size change.
+   */
+  Optional<JarFingerprint> revalidate(Path path) throws IOException {
+    final var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+    if (attributes.size() != this.size) {
+      return Optional.empty();
+    }
+
+    if (attributes.lastModifiedTime().toMillis() == this.lastModified) {
+      return Optional.of(this);
+    }
+
+    final var current = of(path, attributes, null);
+
+    return current.contentHash() == this.contentHash ? Optional.of(current) : Optional.empty();
+  }
+}
@@ -0,0 +1,4 @@
+package io.github.garrettswininger.pluginhost;
+
+/** Fingerprint and content digest of a JAR, computed together in one pass over its bytes. */
+record JarIdentity(JarFingerprint fingerprint, byte[] digest) {}
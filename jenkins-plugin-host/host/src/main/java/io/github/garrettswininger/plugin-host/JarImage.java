@@ -0,0 +1,349 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A JAR read into memory in a single pass. The digest, plugin index and class bytes are all served
+ * from the same buffer, so the file on disk can be replaced or deleted while it is in use.
+ *
+ * <p>Entries stay compressed until they are read, but the whole archive stays on the heap for as
+ * long as the image is in use, see {@link #size()}.
+ *
+ * <p>This is not a {@link JarFile}. ZIP64 archives and entry names that aren't valid UTF-8 are
+ * rejected outright. Signatures aren't verified and versioned entries of multi-release JARs aren't
+ * resolved, so hosted JARs that are signed or multi-release are rejected by {@link #requirePlain()}
+ * rather than loaded with different semantics.
+ */
+final class JarImage {
+  private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+  private static final int CENTRAL_DIRECTORY_ENTRY = 0x02014b50;
+  private static final int LOCAL_FILE_HEADER = 0x04034b50;
+
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+  private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+  private static final int STORED = 0;
+  private static final int DEFLATED = 8;
+
+  // NOTE(garrett): DEFLATE can't expand data by more than this, a larger
+  // claimed size is corrupt and would otherwise be allocated up front
+  private static final long MAX_DEFLATE_RATIO = 1032;
+
+  private static final String META_INF = "META-INF/";
+  private static final Set<String> SIGNATURE_SUFFIXES = Set.of(".SF", ".RSA", ".DSA", ".EC");
+
+  private record Entry(int method, int localHeaderOffset, int compressedSize, int size) {}
+
+  private final Path path;
+
+  private final long lastModified;
+
+  private final ByteBuffer contents;
+
+  private final Map<String, Entry> entries;
+
+  private volatile Optional<Manifest> manifest;
+
+  private JarImage(Path path, long lastModified, ByteBuffer contents, Map<String, Entry> entries) {
+    this.path = path;
+    this.lastModified = lastModified;
+    this.contents = contents;
+    this.entries = entries;
+  }
+
+  /** Reads {@code path} and its central directory, failing if it isn't a readable JAR. */
+  static JarImage read(Path path) throws IOException {
+    // NOTE(garrett): Attributes come first, so a file modified while being
+    // read fails the next revalidation rather than passing it
+    final var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+
+    return of(path, attributes.lastModifiedTime().toMillis(), Files.readAllBytes(path));
+  }
+
+  /**
+   * Wraps a JAR that is already in memory, such as a member of a bundle. {@code path} only names
+   * the JAR, it doesn't have to exist.
+   */
+  static JarImage of(Path path, long lastModified, byte[] bytes) throws IOException {
+    final var contents = ByteBuffer.wrap(bytes).asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN);
+    return new JarImage(path, lastModified, contents, readCentralDirectory(path, contents));
+  }
+
+  /**
+   * Fails if the JAR is signed or multi-release, returning the image otherwise. Libraries skip this
+   * check, they are loaded from their base entries without verifying signatures.
+   */
+  JarImage requirePlain() throws IOException {
+    for (final var name : this.entries.keySet()) {
+      if (isSignatureFile(name)) {
+        throw new IOException(
+            String.format("Signed JARs are not supported, found %s in %s", name, this.path));
+      }
+    }
+
+    final var multiRelease =
+        manifest()
+            .map(current -> current.getMainAttributes().getValue(Attributes.Name.MULTI_RELEASE))
+            .orElse("false");
+
+    if (Boolean.parseBoolean(multiRelease.trim())) {
+      throw new IOException(String.format("Multi-release JARs are not supported: %s", this.path));
+    }
+
+    return this;
+  }
+
+  private static boolean isSignatureFile(String name) {
+    if (!name.startsWith(META_INF) || name.indexOf('/', META_INF.length()) >= 0) {
+      return false;
+    }
+
+    final var upper = name.toUpperCase(Locale.ROOT);
+
+    return upper.startsWith(META_INF + "SIG-")
+        || SIGNATURE_SUFFIXES.stream().anyMatch(upper::endsWith);
+  }
+
+  private static Map<String, Entry> readCentralDirectory(Path path, ByteBuffer contents)
+      throws IOException {
+    final var end = findEndOfCentralDirectory(path, contents);
+    final var count = Short.toUnsignedInt(contents.getShort(end + 10));
+    final var directorySize = contents.getInt(end + 12);
+    final var directoryOffset = contents.getInt(end + 16);
+
+    if (count == 0xFFFF || directorySize == -1 || directoryOffset == -1) {
+      throw new IOException(String.format("ZIP64 archives are not supported: %s", path));
+    }
+
+    final Map<String, Entry> entries = new LinkedHashMap<>();
+    final var names =
+        StandardCharsets.UTF_8
+            .newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+    var position = directoryOffset;
+
+    try {
+      for (var i = 0; i < count; i++) {
+        if (contents.getInt(position) != CENTRAL_DIRECTORY_ENTRY) {
+          throw new IOException(String.format("Corrupt central directory in %s", path));
+        }
+
+        final var nameLength = Short.toUnsignedInt(contents.getShort(position + 28));
+        final var extraLength = Short.toUnsignedInt(contents.getShort(position + 30));
+        final var commentLength = Short.toUnsignedInt(contents.getShort(position + 32));
+        final String name;
+
+        try {
+          name = names.decode(contents.slice(position + 46, nameLength)).toString();
+        } catch (CharacterCodingException ex) {
+          throw new IOException(
+              String.format("Entry name at offset %d is not valid UTF-8 in %s", position, path),
+              ex);
+        }
+
+        final var entry =
+            new Entry(
+                Short.toUnsignedInt(contents.getShort(position + 10)),
+                contents.getInt(position + 42),
+                contents.getInt(position + 20),
+                contents.getInt(position + 24));
+
+        if (!isPlausible(entry, directoryOffset)) {
+          throw new IOException(
+              String.format(
+                  "Corrupt central directory in %s, entry %s claims offset %d and %d bytes"
+                      + " compressed to %d",
+                  path,
+                  name,
+                  Integer.toUnsignedLong(entry.localHeaderOffset()),
+                  Integer.toUnsignedLong(entry.size()),
+                  Integer.toUnsignedLong(entry.compressedSize())));
+        }
+
+        entries.put(name, entry);
+
+        position += 46 + nameLength + extraLength + commentLength;
+      }
+    } catch (IndexOutOfBoundsException ex) {
+      throw new IOException(String.format("Truncated central directory in %s", path), ex);
+    }
+
+    return Collections.unmodifiableMap(entries);
+  }
+
+  /**
+   * Whether an entry lies before the central directory and its uncompressed size could have come
+   * from its compressed size. Sizes that don't fit a signed int, like ZIP64 markers, fail as well.
+   */
+  private static boolean isPlausible(Entry entry, int directoryOffset) {
+    if (entry.localHeaderOffset() < 0
+        || entry.localHeaderOffset() >= directoryOffset
+        || entry.compressedSize() < 0
+        || entry.compressedSize() > directoryOffset - entry.localHeaderOffset()
+        || entry.size() < 0) {
+      return false;
+    }
+
+    return switch (entry.method()) {
+      case STORED -> entry.size() == entry.compressedSize();
+      case DEFLATED -> entry.size() <= entry.compressedSize() * MAX_DEFLATE_RATIO;
+      default -> true;
+    };
+  }
+
+  private static int findEndOfCentralDirectory(Path path, ByteBuffer contents) throws IOException {
+    final var last = contents.limit() - END_OF_CENTRAL_DIRECTORY_SIZE;
+    final var first = Math.max(0, last - MAX_COMMENT_SIZE);
+
+    for (var position = last; position >= first; position--) {
+      if (contents.getInt(position) == END_OF_CENTRAL_DIRECTORY) {
+        return position;
+      }
+    }
+
+    throw new IOException(String.format("Not a JAR, no central directory found: %s", path));
+  }
+
+  Path path() {
+    return this.path;
+  }
+
+  long lastModified() {
+    return this.lastModified;
+  }
+
+  /** Size of the archive as read, which is also what the image keeps in memory. */
+  int size() {
+    return this.contents.limit();
+  }
+
+  /** The raw archive bytes, as an independent read-only view. */
+  ByteBuffer contents() {
+    return this.contents.duplicate();
+  }
+
+  Set<String> names() {
+    return this.entries.keySet();
+  }
+
+  boolean contains(String name) {
+    return this.entries.containsKey(name);
+  }
+
+  /** Uncompressed size of an entry, or -1 if there is no such entry. */
+  long sizeOf(String name) {
+    final var entry = this.entries.get(name);
+
+    return entry == null ? -1 : entry.size();
+  }
+
+  Optional<byte[]> read(String name) throws IOException {
+    final var entry = this.entries.get(name);
+
+    if (entry == null) {
+      return Optional.empty();
+    }
+
+    try {
+      final var header = entry.localHeaderOffset();
+
+      if (this.contents.getInt(header) != LOCAL_FILE_HEADER) {
+        throw new IOException(String.format("Corrupt entry %s in %s", name, this.path));
+      }
+
+      final var start =
+          header
+              + 30
+              + Short.toUnsignedInt(this.contents.getShort(header + 26))
+              + Short.toUnsignedInt(this.contents.getShort(header + 28));
+      final var compressed = this.contents.slice(start, entry.compressedSize());
+
+      return Optional.of(
+          switch (entry.method()) {
+            case STORED -> {
+              final var bytes = new byte[entry.compressedSize()];
+
+              compressed.get(bytes);
+              yield bytes;
+            }
+            case DEFLATED -> inflate(name, compressed, entry.size());
+            default ->
+                throw new IOException(
+                    String.format(
+                        "Unsupported compression method %d for %s in %s",
+                        entry.method(), name, this.path));
+          });
+    } catch (IndexOutOfBoundsException ex) {
+      throw new IOException(String.format("Truncated entry %s in %s", name, this.path), ex);
+    }
+  }
+
+  private byte[] inflate(String name, ByteBuffer compressed, int size) throws IOException {
+    final var inflater = new Inflater(true);
+    final var bytes = new byte[size];
+
+    try {
+      inflater.setInput(compressed);
+
+      var offset = 0;
+
+      while (offset < size && !inflater.finished()) {
+        final var inflated = inflater.inflate(bytes, offset, size - offset);
+
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+
+        offset += inflated;
+      }
+
+      if (offset != size) {
+        throw new IOException(String.format("Truncated entry %s in %s", name, this.path));
+      }
+    } catch (DataFormatException ex) {
+      throw new IOException(String.format("Corrupt entry %s in %s", name, this.path), ex);
+    } finally {
+      inflater.end();
+    }
+
+    return bytes;
+  }
+
+  Optional<Manifest> manifest() throws IOException {
+    var current = this.manifest;
+
+    if (current == null) {
+      final var bytes = read(JarFile.MANIFEST_NAME);
+
+      current =
+          bytes.isPresent()
+              ? Optional.of(new Manifest(new ByteArrayInputStream(bytes.get())))
+              : Optional.empty();
+
+      this.manifest = current;
+    }
+
+    return current;
+  }
+}
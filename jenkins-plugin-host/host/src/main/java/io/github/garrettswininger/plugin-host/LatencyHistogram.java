@@ -0,0 +1,85 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import net.sf.json.JSONObject;
+
+/**
+ * Lock-free latency histogram with power-of-two microsecond buckets. Bucket {@code i} counts
+ * samples below {@code 2^i} microseconds, so percentiles are reported as bucket upper bounds.
+ */
+final class LatencyHistogram {
+  private static final int BUCKETS = 40;
+
+  private final LongAdder[] buckets = new LongAdder[BUCKETS];
+
+  private final LongAdder count = new LongAdder();
+  private final LongAdder totalNanos = new LongAdder();
+  private final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+  LatencyHistogram() {
+    for (var i = 0; i < BUCKETS; i++) {
+      this.buckets[i] = new LongAdder();
+    }
+  }
+
+  void record(long nanos) {
+    final var micros = Math.max(0, nanos / 1000);
+    final var bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+
+    this.buckets[bucket].increment();
+    this.count.increment();
+    this.totalNanos.add(nanos);
+    this.maxNanos.accumulate(nanos);
+  }
+
+  private long percentileMicros(long[] counts, long total, double percentile) {
+    final var target = (long) Math.ceil(total * percentile);
+    var seen = 0L;
+
+    for (var i = 0; i < counts.length; i++) {
+      seen += counts[i];
+
+      if (seen >= target) {
+        return 1L << i;
+      }
+    }
+
+    return 1L << (BUCKETS - 1);
+  }
+
+  JSONObject toJson() {
+    final var counts = new long[BUCKETS];
+    var total = 0L;
+
+    for (var i = 0; i < BUCKETS; i++) {
+      counts[i] = this.buckets[i].sum();
+      total += counts[i];
+    }
+
+    final var json = new JSONObject();
+
+    json.element("count", total);
+
+    if (total == 0) {
+      return json;
+    }
+
+    json.element("meanMicros", this.totalNanos.sum() / 1000 / Math.max(1, this.count.sum()));
+    json.element("maxMicros", this.maxNanos.get() / 1000);
+    json.element("p50Micros", percentileMicros(counts, total, 0.50));
+    json.element("p90Micros", percentileMicros(counts, total, 0.90));
+    json.element("p99Micros", percentileMicros(counts, total, 0.99));
+
+    final var histogram = new JSONObject();
+
+    for (var i = 0; i < BUCKETS; i++) {
+      if (counts[i] > 0) {
+        histogram.element(String.format("lt%dMicros", 1L << i), counts[i]);
+      }
+    }
+
+    json.element("buckets", histogram);
+    return json;
+  }
+}
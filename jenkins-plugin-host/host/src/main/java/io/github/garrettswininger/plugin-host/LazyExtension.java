@@ -0,0 +1,104 @@
+package io.github.garrettswininger.pluginhost;
+
+import hudson.ExtensionPoint;
+import io.github.garrettswininger.hosting.DynamicPlugin;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.function.LongConsumer;
+import java.util.logging.Logger;
+
+/**
+ * Stands in for the extension of a lazy {@link DynamicPlugin}, constructing the real instance on
+ * the first call to any extension point method and delegating to it from then on.
+ */
+final class LazyExtension implements InvocationHandler {
+  private static final Logger LOGGER = Logger.getLogger(LazyExtension.class.getName());
+
+  private final DynamicPlugin<? extends ExtensionPoint, ? extends ExtensionPoint> plugin;
+
+  private final LongConsumer constructionNanos;
+
+  private volatile Object instance;
+
+  private LazyExtension(
+      DynamicPlugin<? extends ExtensionPoint, ? extends ExtensionPoint> plugin,
+      LongConsumer constructionNanos) {
+    this.plugin = plugin;
+    this.constructionNanos = constructionNanos;
+  }
+
+  static boolean isSupported(
+      DynamicPlugin<? extends ExtensionPoint, ? extends ExtensionPoint> plugin) {
+    return plugin.lazy && plugin.extension.isInterface();
+  }
+
+  /**
+   * Creates the handle registered in place of the extension. The proxy class is defined by {@code
+   * loader} so it is unloaded along with the rest of the hosted JAR.
+   */
+  static ExtensionPoint create(
+      DynamicPlugin<? extends ExtensionPoint, ? extends ExtensionPoint> plugin,
+      ClassLoader loader,
+      LongConsumer constructionNanos) {
+    return plugin.extension.cast(
+        Proxy.newProxyInstance(
+            loader,
+            new Class<?>[] {plugin.extension},
+            new LazyExtension(plugin, constructionNanos)));
+  }
+
+  private Object instance() {
+    final var current = this.instance;
+
+    if (current != null) {
+      return current;
+    }
+
+    synchronized (this) {
+      if (this.instance == null) {
+        final var start = System.nanoTime();
+
+        try {
+          this.instance = this.plugin.getInstance();
+        } catch (ReflectiveOperationException ex) {
+          throw new IllegalStateException(
+              String.format(
+                  "Failed to construct lazy extension: %s", this.plugin.implementation.getName()),
+              ex);
+        }
+
+        final var elapsed = System.nanoTime() - start;
+
+        this.constructionNanos.accept(elapsed);
+
+        LOGGER.fine(
+            String.format(
+                "Constructed lazy extension %s on first use in %d us",
+                this.plugin.implementation.getName(), elapsed / 1000));
+      }
+
+      return this.instance;
+    }
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    // NOTE(garrett): Identity semantics keep the handle usable in extension
+    // lists without constructing the extension just to compare or hash it
+    if (method.getDeclaringClass() == Object.class) {
+      return switch (method.getName()) {
+        case "equals" -> proxy == args[0];
+        case "hashCode" -> System.identityHashCode(proxy);
+        default -> String.format("%s (lazy)", this.plugin.implementation.getName());
+      };
+    }
+
+    try {
+      return method.invoke(instance(), args);
+    } catch (InvocationTargetException ex) {
+      throw ex.getCause();
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Runs tasks for the same path in submission order while tasks for different paths run concurrently
+ * on a bounded pool. Submitting blocks once {@code maxPending} tasks are queued or running, pushing
+ * back on the caller rather than growing without bound.
+ */
+final class PathSerialExecutor {
+  private static final Logger LOGGER = Logger.getLogger(PathSerialExecutor.class.getName());
+
+  private final ExecutorService workers;
+
+  private final int maxPending;
+
+  private final Semaphore pendingPermits;
+
+  private final ConcurrentHashMap<Path, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+  PathSerialExecutor(String name, int parallelism, int maxPending) {
+    final var threadIds = new AtomicInteger();
+
+    this.workers =
+        Executors.newFixedThreadPool(
+            Math.max(1, parallelism),
+            runnable -> {
+              final var thread =
+                  new Thread(runnable, String.format("%s-%d", name, threadIds.incrementAndGet()));
+
+              thread.setDaemon(true);
+              return thread;
+            });
+
+    this.maxPending = Math.max(1, maxPending);
+    this.pendingPermits = new Semaphore(this.maxPending);
+  }
+
+  /** Number of tasks queued or running across all paths. */
+  int pendingCount() {
+    return this.maxPending - this.pendingPermits.availablePermits();
+  }
+
+  void execute(Path path, Runnable task) throws InterruptedException {
+    this.pendingPermits.acquire();
+
+    final Runnable guarded =
+        () -> {
+          try {
+            task.run();
+          } catch (RuntimeException ex) {
+            LOGGER.warning(
+                String.format("Task for %s failed: %s", path.toString(), ex.getMessage()));
+          } finally {
+            this.pendingPermits.release();
+          }
+        };
+
+    final var next =
+        this.tails.compute(
+            path,
+            (key, tail) ->
+                tail == null
+                    ? CompletableFuture.runAsync(guarded, this.workers)
+                    : tail.exceptionally(ex -> null).thenRunAsync(guarded, this.workers));
+
+    // NOTE(garrett): Drop the chain once it drains so idle paths don't
+    // accumulate completed futures
+    next.whenComplete((result, ex) -> this.tails.remove(path, next));
+  }
+}
@@ -0,0 +1,90 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Remembers JAR contents that failed to register, keyed by digest, so filesystem events for a
+ * broken artifact don't repeat the scan and instantiation every time. Each failure of the same
+ * content doubles how long it is held back, up to a maximum. New content is never affected.
+ */
+final class PluginQuarantine {
+  private static final Logger LOGGER = Logger.getLogger(PluginQuarantine.class.getName());
+
+  private record Entry(Path path, String reason, int failures, long retryAtNanos) {}
+
+  private final long initialBackoffNanos;
+
+  private final long maxBackoffNanos;
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  PluginQuarantine(long initialBackoffNanos, long maxBackoffNanos) {
+    this.initialBackoffNanos = initialBackoffNanos;
+    this.maxBackoffNanos = maxBackoffNanos;
+  }
+
+  /** Returns whether registration of this content should be skipped for now. */
+  boolean isQuarantined(byte[] digest) {
+    final var entry = this.entries.get(HexFormat.of().formatHex(digest));
+
+    return entry != null && entry.retryAtNanos() - System.nanoTime() > 0;
+  }
+
+  void recordFailure(Path path, byte[] digest, String reason) {
+    final var entry =
+        this.entries.compute(
+            HexFormat.of().formatHex(digest),
+            (key, current) -> {
+              final var failures = current == null ? 1 : current.failures() + 1;
+              final var shift = Math.min(failures - 1, 62);
+              // NOTE(garrett): Compared before shifting so the doubling
+              // can't overflow past the maximum
+              final var backoff =
+                  this.initialBackoffNanos > (this.maxBackoffNanos >> shift)
+                      ? this.maxBackoffNanos
+                      : this.initialBackoffNanos << shift;
+
+              return new Entry(path, reason, failures, System.nanoTime() + backoff);
+            });
+
+    LOGGER.warning(
+        String.format(
+            "Quarantined %s after %d failed attempts (%s), retrying no sooner than %d ms",
+            path,
+            entry.failures(),
+            reason,
+            TimeUnit.NANOSECONDS.toMillis(entry.retryAtNanos() - System.nanoTime())));
+  }
+
+  void recordSuccess(byte[] digest) {
+    this.entries.remove(HexFormat.of().formatHex(digest));
+  }
+
+  JSONArray toJson() {
+    final var json = new JSONArray();
+    final var now = System.nanoTime();
+
+    this.entries.forEach(
+        (digest, entry) -> {
+          final var item = new JSONObject();
+
+          item.element("digest", digest);
+          item.element("path", entry.path().toString());
+          item.element("reason", entry.reason());
+          item.element("failures", entry.failures());
+          item.element(
+              "retryInSeconds",
+              Math.max(0, TimeUnit.NANOSECONDS.toSeconds(entry.retryAtNanos() - now)));
+          json.add(item);
+        });
+
+    return json;
+  }
+}
@@ -0,0 +1,154 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+/**
+ * On-disk record of which plugin classes each hosted JAR provides, so unchanged JARs can skip
+ * indexing and scanning across controller restarts.
+ */
+final class RegistrationCache {
+  private static final Logger LOGGER = Logger.getLogger(RegistrationCache.class.getName());
+
+  private static final String HEADER = "# hosted-registrations v2";
+
+  private static final String FIELD_SEPARATOR = "\t";
+  private static final String LIST_SEPARATOR = ",";
+
+  record Entry(
+      JarFingerprint fingerprint,
+      byte[] digest,
+      List<String> pluginClasses,
+      List<String> extensionTypes) {}
+
+  private final Path file;
+
+  private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+
+  RegistrationCache(Path file) {
+    this.file = file;
+  }
+
+  /** A cache that is never loaded from or saved to disk. */
+  static RegistrationCache inMemory() {
+    return new RegistrationCache(null);
+  }
+
+  void load() {
+    if (this.file == null) {
+      return;
+    }
+
+    final List<String> lines;
+
+    try {
+      lines = Files.readAllLines(this.file, StandardCharsets.UTF_8);
+    } catch (NoSuchFileException ex) {
+      return;
+    } catch (IOException ex) {
+      LOGGER.warning(
+          String.format("Failed to read registration cache %s: %s", this.file, ex.getMessage()));
+
+      return;
+    }
+
+    if (lines.isEmpty() || !lines.get(0).equals(HEADER)) {
+      LOGGER.info(String.format("Ignoring registration cache in unknown format: %s", this.file));
+
+      return;
+    }
+
+    for (final var line : lines.subList(1, lines.size())) {
+      final var fields = line.split(FIELD_SEPARATOR, -1);
+
+      if (fields.length != 7) {
+        LOGGER.fine(String.format("Skipping malformed registration cache entry: %s", line));
+
+        continue;
+      }
+
+      try {
+        this.entries.put(
+            Path.of(fields[0]),
+            new Entry(
+                new JarFingerprint(
+                    Long.parseLong(fields[1]),
+                    Long.parseLong(fields[2]),
+                    Long.parseUnsignedLong(fields[3], 16)),
+                HexFormat.of().parseHex(fields[4]),
+                splitList(fields[5]),
+                splitList(fields[6])));
+      } catch (IllegalArgumentException ex) {
+        LOGGER.fine(String.format("Skipping malformed registration cache entry: %s", line));
+      }
+    }
+
+    LOGGER.info(String.format("Loaded %d cached hosted registrations", this.entries.size()));
+  }
+
+  Optional<Entry> lookup(Path path) {
+    return Optional.ofNullable(this.entries.get(path));
+  }
+
+  void put(Path path, Entry registration) {
+    this.entries.put(path, registration);
+  }
+
+  void remove(Path path) {
+    this.entries.remove(path);
+  }
+
+  void retain(Collection<Path> paths) {
+    this.entries.keySet().retainAll(paths);
+  }
+
+  synchronized void save() {
+    if (this.file == null) {
+      return;
+    }
+
+    final List<String> lines = new ArrayList<>();
+    lines.add(HEADER);
+
+    this.entries.forEach(
+        (path, cached) ->
+            lines.add(
+                String.join(
+                    FIELD_SEPARATOR,
+                    path.toString(),
+                    Long.toString(cached.fingerprint().size()),
+                    Long.toString(cached.fingerprint().lastModified()),
+                    Long.toHexString(cached.fingerprint().contentHash()),
+                    HexFormat.of().formatHex(cached.digest()),
+                    String.join(LIST_SEPARATOR, cached.pluginClasses()),
+                    String.join(LIST_SEPARATOR, cached.extensionTypes()))));
+
+    final var staging = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+
+    try {
+      Files.write(staging, lines, StandardCharsets.UTF_8);
+      Files.move(
+          staging, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException ex) {
+      LOGGER.warning(
+          String.format("Failed to write registration cache %s: %s", this.file, ex.getMessage()));
+    }
+  }
+
+  private static List<String> splitList(String field) {
+    return field.isEmpty() ? List.of() : Arrays.asList(field.split(LIST_SEPARATOR));
+  }
+}
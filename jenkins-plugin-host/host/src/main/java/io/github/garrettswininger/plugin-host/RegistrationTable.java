@@ -0,0 +1,60 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Copy-on-write table of active registrations. Readers get an immutable snapshot without locking,
+ * while writers are serialized and publish a fresh snapshot on every change.
+ */
+final class RegistrationTable {
+  private volatile SortedMap<Path, HostedRegistration> snapshot =
+      Collections.unmodifiableSortedMap(new TreeMap<>());
+
+  SortedMap<Path, HostedRegistration> snapshot() {
+    return this.snapshot;
+  }
+
+  HostedRegistration get(Path path) {
+    return this.snapshot.get(path);
+  }
+
+  synchronized void put(Path path, HostedRegistration registration) {
+    final var next = new TreeMap<>(this.snapshot);
+    next.put(path, registration);
+
+    this.snapshot = Collections.unmodifiableSortedMap(next);
+  }
+
+  synchronized void putAll(Map<Path, HostedRegistration> registrations) {
+    final var next = new TreeMap<>(this.snapshot);
+    next.putAll(registrations);
+
+    this.snapshot = Collections.unmodifiableSortedMap(next);
+  }
+
+  /** Removes and adds entries in one step, so readers never see only part of the change. */
+  synchronized void replace(Collection<Path> removed, Map<Path, HostedRegistration> added) {
+    final var next = new TreeMap<>(this.snapshot);
+    next.keySet().removeAll(removed);
+    next.putAll(added);
+
+    this.snapshot = Collections.unmodifiableSortedMap(next);
+  }
+
+  synchronized HostedRegistration remove(Path path) {
+    if (!this.snapshot.containsKey(path)) {
+      return null;
+    }
+
+    final var next = new TreeMap<>(this.snapshot);
+    final var removed = next.remove(path);
+
+    this.snapshot = Collections.unmodifiableSortedMap(next);
+    return removed;
+  }
+}
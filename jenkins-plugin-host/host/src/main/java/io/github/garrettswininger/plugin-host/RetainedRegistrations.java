@@ -0,0 +1,155 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Keeps recently deregistered or replaced registrations alive, keyed by content digest, so a JAR
+ * that comes back with the same contents gets its class loader and extensions back instead of a
+ * cold load. Entries are evicted least recently used first once there are too many, or once their
+ * JAR images together take more than the byte budget, or once they have been kept for longer than
+ * the time to live.
+ */
+final class RetainedRegistrations {
+  record Retained(
+      Path path,
+      HostedRegistration registration,
+      Optional<RegistrationCache.Entry> cacheEntry,
+      long imageBytes,
+      long retainedAtNanos) {}
+
+  private final int capacity;
+
+  private final long maxBytes;
+
+  private final long timeToLiveNanos;
+
+  private final Consumer<Retained> evicted;
+
+  // NOTE(garrett): Access ordered, so iteration starts at the least
+  // recently used entry
+  private final LinkedHashMap<String, Retained> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long retainedBytes;
+
+  /** {@code evicted} runs outside of any lock, for entries that will not be reinstated. */
+  RetainedRegistrations(
+      int capacity, long maxBytes, long timeToLiveNanos, Consumer<Retained> evicted) {
+    this.capacity = capacity;
+    this.maxBytes = maxBytes;
+    this.timeToLiveNanos = timeToLiveNanos;
+    this.evicted = evicted;
+  }
+
+  /** Keeps a registration whose extensions have already been removed from Jenkins. */
+  void retain(
+      Path path, HostedRegistration registration, Optional<RegistrationCache.Entry> cacheEntry) {
+    // NOTE(garrett): Sized once up front, so the budget is released by the
+    // same amount it was charged however the loader changes meanwhile
+    final var retained =
+        new Retained(
+            path, registration, cacheEntry, registration.loader().imageBytes(), System.nanoTime());
+
+    if (this.capacity <= 0
+        || registration.digest().length == 0
+        || retained.imageBytes() > this.maxBytes) {
+      this.evicted.accept(retained);
+      return;
+    }
+
+    final List<Retained> dropped = new ArrayList<>();
+
+    synchronized (this) {
+      final var previous =
+          this.entries.put(HexFormat.of().formatHex(registration.digest()), retained);
+
+      this.retainedBytes += retained.imageBytes();
+
+      if (previous != null) {
+        dropped.add(previous);
+        this.retainedBytes -= previous.imageBytes();
+      }
+
+      final var iterator = this.entries.values().iterator();
+
+      while (this.entries.size() > this.capacity || this.retainedBytes > this.maxBytes) {
+        final var oldest = iterator.next();
+
+        dropped.add(oldest);
+        this.retainedBytes -= oldest.imageBytes();
+        iterator.remove();
+      }
+    }
+
+    dropped.forEach(this.evicted);
+  }
+
+  /** Removes and returns the registration kept for {@code digest}, if there is one. */
+  Optional<Retained> reinstate(byte[] digest) {
+    if (digest.length == 0) {
+      return Optional.empty();
+    }
+
+    synchronized (this) {
+      final var retained = this.entries.remove(HexFormat.of().formatHex(digest));
+
+      if (retained == null) {
+        return Optional.empty();
+      }
+
+      this.retainedBytes -= retained.imageBytes();
+
+      return Optional.of(retained);
+    }
+  }
+
+  /** Evicts every entry kept for longer than the time to live. */
+  void expire() {
+    final List<Retained> dropped = new ArrayList<>();
+    final var now = System.nanoTime();
+
+    synchronized (this) {
+      final var iterator = this.entries.values().iterator();
+
+      while (iterator.hasNext()) {
+        final var retained = iterator.next();
+
+        if (now - retained.retainedAtNanos() >= this.timeToLiveNanos) {
+          dropped.add(retained);
+          this.retainedBytes -= retained.imageBytes();
+          iterator.remove();
+        }
+      }
+    }
+
+    dropped.forEach(this.evicted);
+  }
+
+  synchronized JSONArray toJson() {
+    final var json = new JSONArray();
+    final var now = System.nanoTime();
+
+    for (final Map.Entry<String, Retained> entry : this.entries.entrySet()) {
+      final var item = new JSONObject();
+
+      item.element("digest", entry.getKey());
+      item.element("path", entry.getValue().path().toString());
+      item.element("imageBytes", entry.getValue().imageBytes());
+      item.element(
+          "retainedSeconds",
+          TimeUnit.NANOSECONDS.toSeconds(now - entry.getValue().retainedAtNanos()));
+      json.add(item);
+    }
+
+    return json;
+  }
+}
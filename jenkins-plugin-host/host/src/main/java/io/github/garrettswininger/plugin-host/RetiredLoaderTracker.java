@@ -0,0 +1,304 @@
+package io.github.garrettswininger.pluginhost;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+import hudson.ExtensionPoint;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Follows class loaders after their registration is retired and reports the ones that are still
+ * reachable once a grace period has passed, since their classes can't leave metaspace until the
+ * loader is collected.
+ *
+ * <p>Heap dumps are opt in separately from diagnostics. A live dump is as large as the used heap,
+ * so at most one is written per check, and none when the dump directory's volume has less room than
+ * that.
+ */
+final class RetiredLoaderTracker {
+  private static final Logger LOGGER = Logger.getLogger(RetiredLoaderTracker.class.getName());
+
+  private static final class RetiredLoader {
+    final Path path;
+    final String digest;
+    final String loaderName;
+    final int loadedClasses;
+    final long retiredNanos;
+    final List<Class<? extends ExtensionPoint>> extensionTypes;
+
+    volatile boolean reported;
+
+    RetiredLoader(Path path, HostedRegistration registration) {
+      this.path = path;
+      this.digest = HexFormat.of().formatHex(registration.digest());
+      this.loaderName = registration.loader().getName();
+      this.loadedClasses = registration.loader().loadedClassCount();
+      this.retiredNanos = System.nanoTime();
+
+      // NOTE(garrett): Extension types defined by the hosted JAR itself would
+      // keep the loader alive, so only types from other loaders are kept
+      this.extensionTypes =
+          registration.extensions().keySet().stream()
+              .filter(type -> type.getClassLoader() != registration.loader())
+              .toList();
+    }
+  }
+
+  private final ReferenceQueue<HostedClassLoader> queue = new ReferenceQueue<>();
+
+  private final Map<Reference<? extends HostedClassLoader>, RetiredLoader> retired =
+      new ConcurrentHashMap<>();
+
+  private final LongAdder reclaimed = new LongAdder();
+
+  private final Path dumpDirectory;
+
+  private final long gracePeriodNanos;
+
+  private final boolean diagnose;
+
+  private final boolean dumpHeaps;
+
+  private final ExtensionListBatch.Lookup extensionLists;
+
+  RetiredLoaderTracker(
+      Path dumpDirectory,
+      long gracePeriodNanos,
+      boolean diagnose,
+      boolean dumpHeaps,
+      ExtensionListBatch.Lookup extensionLists) {
+    this.dumpDirectory = dumpDirectory;
+    this.gracePeriodNanos = gracePeriodNanos;
+    this.diagnose = diagnose;
+    this.dumpHeaps = dumpHeaps;
+    this.extensionLists = extensionLists;
+  }
+
+  /** Starts following the loader of a registration that has been removed and closed. */
+  void retire(Path path, HostedRegistration registration) {
+    expunge();
+
+    this.retired.put(
+        new WeakReference<>(registration.loader(), this.queue),
+        new RetiredLoader(path, registration));
+  }
+
+  private void expunge() {
+    Reference<? extends HostedClassLoader> reference;
+
+    while ((reference = this.queue.poll()) != null) {
+      final var loader = this.retired.remove(reference);
+
+      if (loader != null) {
+        this.reclaimed.increment();
+
+        LOGGER.fine(
+            String.format(
+                "Class loader for %s reclaimed after %d ms",
+                loader.path,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - loader.retiredNanos)));
+      }
+    }
+  }
+
+  private boolean isOverdue(RetiredLoader loader, long now) {
+    return now - loader.retiredNanos >= this.gracePeriodNanos;
+  }
+
+  /** Reports loaders that have become overdue since the last check, once each. */
+  void check() {
+    expunge();
+
+    final var now = System.nanoTime();
+    final var dumped = new boolean[1];
+
+    this.retired.forEach(
+        (reference, loader) -> {
+          if (loader.reported || !isOverdue(loader, now) || reference.refersTo(null)) {
+            return;
+          }
+
+          loader.reported = true;
+
+          LOGGER.warning(
+              String.format(
+                  "Class loader %s for %s (digest %s) has not been reclaimed %d s after it was"
+                      + " retired, %d classes remain loaded",
+                  loader.loaderName,
+                  loader.path,
+                  loader.digest,
+                  TimeUnit.NANOSECONDS.toSeconds(now - loader.retiredNanos),
+                  loader.loadedClasses));
+
+          if (this.diagnose) {
+            dumped[0] |= report(reference, loader, !dumped[0]);
+          }
+        });
+  }
+
+  /** Logs what keeps {@code loader} alive, returning whether a heap dump was written for it. */
+  private boolean report(
+      Reference<? extends HostedClassLoader> reference, RetiredLoader loader, boolean mayDump) {
+    final var referencePath = findReferencePath(reference, loader);
+
+    if (referencePath.isPresent()) {
+      LOGGER.warning(
+          String.format("Reference path keeping %s alive: %s", loader.path, referencePath.get()));
+
+      return false;
+    }
+
+    if (!this.dumpHeaps || !mayDump) {
+      LOGGER.warning(
+          String.format(
+              "No reference to %s found in extension lists or threads, take a heap dump and"
+                  + " inspect the paths to GC roots of loader %s",
+              loader.path, loader.loaderName));
+
+      return false;
+    }
+
+    // NOTE(garrett): Nothing the host knows about holds the loader, so leave
+    // the full reference graph to a heap analyser
+    final var dump = dumpHeap(loader);
+
+    dump.ifPresent(
+        path ->
+            LOGGER.warning(
+                String.format(
+                    "No reference to %s found in extension lists or threads, heap dump written"
+                        + " to %s, inspect the paths to GC roots of loader %s",
+                    loader.path, path, loader.loaderName)));
+
+    return dump.isPresent();
+  }
+
+  /**
+   * Looks for the most direct reference to the loader among the places hosted plugins usually leak
+   * into: extension lists, thread context class loaders, and threads running hosted code.
+   */
+  private Optional<String> findReferencePath(
+      Reference<? extends HostedClassLoader> reference, RetiredLoader retiredLoader) {
+    final var loader = reference.get();
+
+    if (loader == null) {
+      return Optional.empty();
+    }
+
+    for (final var extensionType : retiredLoader.extensionTypes) {
+      for (final var instance : this.extensionLists.get(extensionType)) {
+        if (instance.getClass().getClassLoader() == loader) {
+          return Optional.of(
+              String.format(
+                  "ExtensionList<%s> -> %s -> %s",
+                  extensionType.getName(), instance.getClass().getName(), loader.getName()));
+        }
+      }
+    }
+
+    for (final var entry : Thread.getAllStackTraces().entrySet()) {
+      final var thread = entry.getKey();
+
+      if (thread.getClass().getClassLoader() == loader) {
+        return Optional.of(
+            String.format(
+                "Thread[%s] -> %s -> %s",
+                thread.getName(), thread.getClass().getName(), loader.getName()));
+      }
+
+      if (thread.getContextClassLoader() == loader) {
+        return Optional.of(
+            String.format(
+                "Thread[%s] -> contextClassLoader -> %s", thread.getName(), loader.getName()));
+      }
+
+      for (final var frame : entry.getValue()) {
+        if (loader.getName().equals(frame.getClassLoaderName())) {
+          return Optional.of(
+              String.format(
+                  "Thread[%s] -> executing %s.%s -> %s",
+                  thread.getName(), frame.getClassName(), frame.getMethodName(), loader.getName()));
+        }
+      }
+    }
+
+    return Optional.empty();
+  }
+
+  private Optional<Path> dumpHeap(RetiredLoader loader) {
+    final var dump =
+        this.dumpDirectory.resolve(
+            String.format(
+                "leak-%s-%d.hprof", loader.path.getFileName(), System.currentTimeMillis()));
+
+    try {
+      Files.createDirectories(this.dumpDirectory);
+
+      final var runtime = Runtime.getRuntime();
+      final var heapBytes = runtime.totalMemory() - runtime.freeMemory();
+      final var usableBytes = Files.getFileStore(this.dumpDirectory).getUsableSpace();
+
+      if (usableBytes < heapBytes) {
+        LOGGER.warning(
+            String.format(
+                "Not writing a heap dump for %s, %d MiB free under %s but %d MiB of heap in use",
+                loader.path, usableBytes >> 20, this.dumpDirectory, heapBytes >> 20));
+
+        return Optional.empty();
+      }
+
+      ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class)
+          .dumpHeap(dump.toString(), true);
+    } catch (IOException | IllegalArgumentException ex) {
+      LOGGER.warning(
+          String.format("Failed to write heap dump for %s: %s", loader.path, ex.getMessage()));
+
+      return Optional.empty();
+    }
+
+    return Optional.of(dump);
+  }
+
+  JSONObject toJson() {
+    expunge();
+
+    final var now = System.nanoTime();
+    final var suspected = new JSONArray();
+
+    this.retired.values().stream()
+        .filter(loader -> isOverdue(loader, now))
+        .forEach(
+            loader -> {
+              final var entry = new JSONObject();
+
+              entry.element("path", loader.path.toString());
+              entry.element("digest", loader.digest);
+              entry.element("loader", loader.loaderName);
+              entry.element("loadedClasses", loader.loadedClasses);
+              entry.element(
+                  "retiredSeconds", TimeUnit.NANOSECONDS.toSeconds(now - loader.retiredNanos));
+              suspected.add(entry);
+            });
+
+    final var json = new JSONObject();
+
+    json.element("awaitingCollection", this.retired.size());
+    json.element("reclaimed", this.reclaimed.sum());
+    json.element("suspectedLeaks", suspected);
+    return json;
+  }
+}
@@ -0,0 +1,232 @@
+package io.github.garrettswininger.pluginhost;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.logging.Logger;
+import net.sf.json.JSONArray;
+import net.sf.json.JSONObject;
+
+/**
+ * Loads library JARs shared between hosted JARs once, keyed by content digest, and keeps each
+ * library loaded for as long as any hosted class loader references it.
+ *
+ * <p>Hosted JARs (and libraries themselves) declare the libraries they depend on with a
+ * space-separated {@code Hosted-Libraries} manifest attribute, naming JARs in the libraries
+ * directory.
+ *
+ * <p>Unlike hosted JARs, libraries may be signed or multi-release, since many published libraries
+ * are. Their signatures aren't verified and only their base entries are loaded.
+ */
+final class SharedLibraryPool {
+  private static final Logger LOGGER = Logger.getLogger(SharedLibraryPool.class.getName());
+
+  static final Attributes.Name HOSTED_LIBRARIES = new Attributes.Name("Hosted-Libraries");
+
+  static final class Library {
+    final Path path;
+    final byte[] digest;
+    final JarFingerprint fingerprint;
+    final HostedClassLoader loader;
+    final List<Library> dependencies;
+
+    // NOTE(garrett): Guarded by the pool
+    int references = 1;
+
+    Library(
+        Path path,
+        byte[] digest,
+        JarFingerprint fingerprint,
+        HostedClassLoader loader,
+        List<Library> dependencies) {
+      this.path = path;
+      this.digest = digest;
+      this.fingerprint = fingerprint;
+      this.loader = loader;
+      this.dependencies = dependencies;
+    }
+
+    String digestHex() {
+      return HexFormat.of().formatHex(this.digest);
+    }
+  }
+
+  private final Path directory;
+
+  private final ClassLoader parent;
+
+  private final RetiredLoaderTracker retiredLoaders;
+
+  private final Map<String, Library> libraries = new HashMap<>();
+
+  private final Map<Path, JarIdentity> identities = new HashMap<>();
+
+  SharedLibraryPool(Path directory, ClassLoader parent, RetiredLoaderTracker retiredLoaders) {
+    this.directory = directory.toAbsolutePath().normalize();
+    this.parent = parent;
+    this.retiredLoaders = retiredLoaders;
+  }
+
+  static List<String> declaredLibraries(JarImage jar) throws IOException {
+    final var value =
+        jar.manifest()
+            .map(manifest -> manifest.getMainAttributes().getValue(HOSTED_LIBRARIES))
+            .orElse(null);
+
+    if (value == null || value.isBlank()) {
+      return List.of();
+    }
+
+    return Arrays.asList(value.trim().split("\\s+"));
+  }
+
+  /**
+   * Acquires every library declared by {@code jar}, loading any that aren't shared yet. Either all
+   * of them are acquired or, on failure, none are.
+   */
+  synchronized List<Library> acquire(JarImage jar) throws IOException {
+    return acquireAll(declaredLibraries(jar), new HashSet<>());
+  }
+
+  private List<Library> acquireAll(List<String> names, Set<Path> resolving) throws IOException {
+    final List<Library> acquired = new ArrayList<>();
+
+    try {
+      for (final var name : names) {
+        acquired.add(acquireLibrary(name, resolving));
+      }
+    } catch (IOException ex) {
+      release(acquired);
+
+      throw ex;
+    }
+
+    return List.copyOf(acquired);
+  }
+
+  private Library acquireLibrary(String name, Set<Path> resolving) throws IOException {
+    final var path = this.directory.resolve(name).normalize();
+
+    if (!path.startsWith(this.directory)) {
+      throw new IOException(String.format("Library %s is outside of %s", name, this.directory));
+    }
+
+    if (!resolving.add(path)) {
+      throw new IOException(String.format("Circular library dependency through %s", path));
+    }
+
+    try {
+      // NOTE(garrett): Libraries rarely change, so a library that is already
+      // loaded is matched on its fingerprint without reading it again
+      final var known = this.identities.get(path);
+
+      if (known != null && known.fingerprint().revalidate(path).isPresent()) {
+        final var existing = this.libraries.get(HexFormat.of().formatHex(known.digest()));
+
+        if (existing != null) {
+          existing.references++;
+
+          return existing;
+        }
+      }
+
+      final var image = JarImage.read(path);
+      final var identity = identify(image);
+      final var key = HexFormat.of().formatHex(identity.digest());
+      final var existing = this.libraries.get(key);
+
+      if (existing != null) {
+        existing.references++;
+
+        return existing;
+      }
+
+      final var dependencies = acquireAll(declaredLibraries(image), resolving);
+      final HostedClassLoader loader;
+
+      try {
+        loader = new HostedClassLoader(image, this.parent, dependencies);
+      } catch (IOException ex) {
+        release(dependencies);
+
+        throw ex;
+      }
+
+      final var library =
+          new Library(path, identity.digest(), identity.fingerprint(), loader, dependencies);
+
+      this.libraries.put(key, library);
+
+      LOGGER.info(String.format("Loaded shared library %s (%s)", path, key));
+
+      return library;
+    } finally {
+      resolving.remove(path);
+    }
+  }
+
+  private JarIdentity identify(JarImage image) throws IOException {
+    final MessageDigest digest;
+
+    try {
+      digest = MessageDigest.getInstance("MD5");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IOException("Unable to instantiate the requested hash provider", ex);
+    }
+
+    final var identity = new JarIdentity(JarFingerprint.of(image, digest), digest.digest());
+
+    this.identities.put(image.path(), identity);
+
+    return identity;
+  }
+
+  /** Drops one reference to each library, unloading those no longer referenced by anything. */
+  synchronized void release(List<Library> released) {
+    for (final var library : released) {
+      if (--library.references > 0) {
+        continue;
+      }
+
+      this.libraries.remove(library.digestHex());
+
+      library.loader.close();
+
+      this.retiredLoaders.retire(
+          library.path,
+          new HostedRegistration(library.digest, library.fingerprint, library.loader, Map.of()));
+
+      LOGGER.info(String.format("Unloaded shared library %s", library.path));
+
+      release(library.dependencies);
+    }
+  }
+
+  synchronized JSONArray toJson() {
+    final var json = new JSONArray();
+
+    for (final var library : this.libraries.values()) {
+      final var entry = new JSONObject();
+
+      entry.element("path", library.path.toString());
+      entry.element("digest", library.digestHex());
+      entry.element("references", library.references);
+      entry.element("loadedClasses", library.loader.loadedClassCount());
+      entry.element("retainedBytes", library.loader.retainedBytes());
+      entry.element("imageBytes", library.loader.imageBytes());
+      json.add(entry);
+    }
+
+    return json;
+  }
+}
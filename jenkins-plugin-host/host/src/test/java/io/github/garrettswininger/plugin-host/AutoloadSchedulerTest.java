@@ -0,0 +1,163 @@
+package io.github.garrettswininger.pluginhost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+class AutoloadSchedulerTest {
+  // NOTE(garrett): Held strongly so the level isn't lost when the logger is
+  // collected, every new path would otherwise log a line
+  private static final Logger SCHEDULER_LOGGER =
+      Logger.getLogger(AutoloadScheduler.class.getName());
+
+  private static final Path MISSING_DIRECTORY = Path.of("autoload-scheduler-test-missing");
+
+  private static final int STRESS_PATHS = 1000;
+
+  private static final int STRESS_THREADS = 4;
+
+  private static final int STRESS_EVENTS = 200_000;
+
+  private static Level previousLevel;
+
+  @BeforeAll
+  static void quietLogging() {
+    previousLevel = SCHEDULER_LOGGER.getLevel();
+    SCHEDULER_LOGGER.setLevel(Level.WARNING);
+  }
+
+  @AfterAll
+  static void restoreLogging() {
+    SCHEDULER_LOGGER.setLevel(previousLevel);
+  }
+
+  /** What a second event does to a pending one, null where the two cancel out. */
+  private static AutoloadEventAction expected(
+      AutoloadEventAction first, AutoloadEventAction second) {
+    return switch (first) {
+      case REGISTER ->
+          switch (second) {
+            case REGISTER, RELOAD -> AutoloadEventAction.REGISTER;
+            case DEREGISTER -> null;
+          };
+      case DEREGISTER ->
+          switch (second) {
+            case REGISTER, RELOAD -> AutoloadEventAction.RELOAD;
+            case DEREGISTER -> AutoloadEventAction.DEREGISTER;
+          };
+      case RELOAD ->
+          switch (second) {
+            case REGISTER, RELOAD -> AutoloadEventAction.RELOAD;
+            case DEREGISTER -> AutoloadEventAction.DEREGISTER;
+          };
+    };
+  }
+
+  @Test
+  void coalescesEveryPairOfActions() throws InterruptedException {
+    for (final var first : AutoloadEventAction.values()) {
+      for (final var second : AutoloadEventAction.values()) {
+        final var scheduler = new AutoloadScheduler(0, TimeUnit.SECONDS.toNanos(30));
+        final var path = MISSING_DIRECTORY.resolve(first + "-" + second + ".jar");
+        final var pair = String.format("%s followed by %s", first, second);
+
+        scheduler.submit(path, first);
+
+        assertTrue(scheduler.submit(path, second), pair);
+
+        final var action = expected(first, second);
+
+        if (action == null) {
+          assertEquals(0, scheduler.pendingCount(), pair);
+          continue;
+        }
+
+        assertEquals(new AutoloadScheduler.AutoloadEvent(action, path), scheduler.take(), pair);
+        assertEquals(0, scheduler.pendingCount(), pair);
+      }
+    }
+  }
+
+  @Test
+  void deliversOneEventPerPathUnderLoad() throws Exception {
+    // NOTE(garrett): Time only passes when the test moves the clock, so no
+    // path can settle while events for it are still arriving and every path
+    // must come out exactly once
+    final var clock = new AtomicLong();
+    final var scheduler =
+        new AutoloadScheduler(TimeUnit.HOURS.toNanos(1), TimeUnit.DAYS.toNanos(1), clock::get);
+    final var paths = new ArrayList<Path>();
+
+    for (var i = 0; i < STRESS_PATHS; i++) {
+      paths.add(MISSING_DIRECTORY.resolve(String.format("plugin-%d.jar", i)));
+    }
+
+    // NOTE(garrett): Each thread owns a disjoint slice of the paths, so the
+    // last action submitted for a path is known without synchronization
+    final Map<Path, AutoloadEventAction> lastSubmitted = new ConcurrentHashMap<>();
+    final ExecutorService producers = Executors.newFixedThreadPool(STRESS_THREADS);
+    final List<Future<?>> running = new ArrayList<>();
+
+    for (var thread = 0; thread < STRESS_THREADS; thread++) {
+      final var slice = thread;
+
+      running.add(
+          producers.submit(
+              () -> {
+                final Map<Path, AutoloadEventAction> last = new HashMap<>();
+                final var owned = STRESS_PATHS / STRESS_THREADS;
+
+                for (var i = 0; i < STRESS_EVENTS / STRESS_THREADS; i++) {
+                  final var path = paths.get(i % owned * STRESS_THREADS + slice);
+                  final var action =
+                      i / owned % 3 == 0
+                          ? AutoloadEventAction.DEREGISTER
+                          : AutoloadEventAction.RELOAD;
+
+                  scheduler.submit(path, action);
+                  last.put(path, action);
+                }
+
+                lastSubmitted.putAll(last);
+              }));
+    }
+
+    for (final var future : running) {
+      future.get();
+    }
+
+    producers.shutdown();
+
+    assertEquals(STRESS_PATHS, scheduler.pendingCount());
+
+    clock.addAndGet(TimeUnit.HOURS.toNanos(2));
+
+    final Map<Path, AutoloadEventAction> delivered = new HashMap<>();
+
+    for (var i = 0; i < STRESS_PATHS; i++) {
+      final var event = scheduler.take();
+
+      assertNull(delivered.put(event.path(), event.action()), "Delivered twice: " + event.path());
+    }
+
+    assertEquals(0, scheduler.pendingCount());
+    assertEquals(lastSubmitted, delivered);
+  }
+}
@@ -0,0 +1,98 @@
+package io.github.garrettswininger.pluginhost;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import org.junit.jupiter.api.Test;
+
+class RetainedRegistrationsTest {
+  private static final int PAYLOAD_BYTES = 4096;
+
+  private static HostedRegistration registration(String name, int digest) throws IOException {
+    final var bytes = new ByteArrayOutputStream();
+
+    try (final var jar = new JarOutputStream(bytes)) {
+      final var entry = new JarEntry("payload.bin");
+
+      entry.setMethod(ZipEntry.STORED);
+      entry.setSize(PAYLOAD_BYTES);
+
+      final var payload = new byte[PAYLOAD_BYTES];
+      final var crc = new CRC32();
+
+      crc.update(payload);
+      entry.setCrc(crc.getValue());
+      jar.putNextEntry(entry);
+      jar.write(payload);
+      jar.closeEntry();
+    }
+
+    final var image = JarImage.of(Path.of(name), 0, bytes.toByteArray());
+
+    return new HostedRegistration(
+        new byte[] {(byte) digest},
+        new JarFingerprint(image.size(), 0, digest),
+        new HostedClassLoader(image, RetainedRegistrationsTest.class.getClassLoader(), List.of()),
+        Map.of());
+  }
+
+  @Test
+  void evictsLeastRecentlyUsedOnceOverTheByteBudget() throws IOException {
+    final var first = registration("first.jar", 1);
+    final var second = registration("second.jar", 2);
+    final var third = registration("third.jar", 3);
+    final var imageBytes = first.loader().imageBytes();
+    final List<Path> evicted = new ArrayList<>();
+    final var retained =
+        new RetainedRegistrations(
+            16, imageBytes * 2, TimeUnit.HOURS.toNanos(1), entry -> evicted.add(entry.path()));
+
+    retained.retain(Path.of("first.jar"), first, Optional.empty());
+    retained.retain(Path.of("second.jar"), second, Optional.empty());
+
+    assertTrue(evicted.isEmpty());
+
+    retained.retain(Path.of("third.jar"), third, Optional.empty());
+
+    assertEquals(List.of(Path.of("first.jar")), evicted);
+    assertTrue(retained.reinstate(first.digest()).isEmpty());
+
+    // NOTE(garrett): Reinstating releases its share of the budget
+    assertTrue(retained.reinstate(second.digest()).isPresent());
+
+    retained.retain(Path.of("first.jar"), first, Optional.empty());
+
+    assertEquals(List.of(Path.of("first.jar")), evicted);
+    assertTrue(retained.reinstate(third.digest()).isPresent());
+    assertTrue(retained.reinstate(first.digest()).isPresent());
+  }
+
+  @Test
+  void neverKeepsARegistrationLargerThanTheBudget() throws IOException {
+    final var registration = registration("large.jar", 1);
+    final List<Path> evicted = new ArrayList<>();
+    final var retained =
+        new RetainedRegistrations(
+            16,
+            registration.loader().imageBytes() - 1,
+            TimeUnit.HOURS.toNanos(1),
+            entry -> evicted.add(entry.path()));
+
+    retained.retain(Path.of("large.jar"), registration, Optional.empty());
+
+    assertEquals(List.of(Path.of("large.jar")), evicted);
+    assertTrue(retained.reinstate(registration.digest()).isEmpty());
+  }
+}
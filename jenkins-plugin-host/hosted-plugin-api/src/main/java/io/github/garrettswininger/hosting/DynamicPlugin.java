@@ -4,12 +4,57 @@ import hudson.ExtensionPoint;
 import java.lang.reflect.InvocationTargetException;
 
 public abstract class DynamicPlugin<T extends ExtensionPoint, U extends T> {
+  /**
+   * How a plugin is registered. Start from {@link #DEFAULTS}, an eager plugin at ordinal zero, and
+   * change only what differs. Lazy construction needs an interface extension point such as {@code
+   * RootAction}:
+   *
+   * <pre>{@code
+   * super(RootAction.class, Dashboard.class, Options.DEFAULTS.lazily().withOrdinal(100));
+   * }</pre>
+   */
+  public record Options(boolean lazy, double ordinal) {
+    public static final Options DEFAULTS = new Options(false, 0);
+
+    /**
+     * Registers the plugin as a handle constructed on first use, see {@link DynamicPlugin#lazy}.
+     */
+    public Options lazily() {
+      return new Options(true, this.ordinal);
+    }
+
+    /** Places the plugin in its extension list, see {@link DynamicPlugin#ordinal}. */
+    public Options withOrdinal(double ordinal) {
+      return new Options(this.lazy, ordinal);
+    }
+  }
+
   public final Class<T> extension;
   public final Class<U> implementation;
 
+  /**
+   * Lazy plugins are registered as a lightweight handle and only constructed on first use. This is
+   * only possible when {@link #extension} is an interface, other extension points are constructed
+   * eagerly. The handle is not an instance of {@link #implementation}, so lookups by implementation
+   * class and views attached to it won't find a lazy extension.
+   */
+  public final boolean lazy;
+
+  /**
+   * Position in the extension list, with the same meaning as {@code @Extension(ordinal = ...)}.
+   * Higher ordinals come first, ties are broken by implementation class name and then by JAR.
+   */
+  public final double ordinal;
+
   public DynamicPlugin(Class<T> extension, Class<U> implementation) {
+    this(extension, implementation, Options.DEFAULTS);
+  }
+
+  public DynamicPlugin(Class<T> extension, Class<U> implementation, Options options) {
     this.extension = extension;
     this.implementation = implementation;
+    this.lazy = options.lazy();
+    this.ordinal = options.ordinal();
   }
 
   public U getInstance()
@@ -7,4 +7,10 @@ import java.lang.annotation.Target;
 
 @Retention(RetentionPolicy.RUNTIME)
 @Target(ElementType.TYPE)
-public @interface Hosted {}
+public @interface Hosted {
+  /**
+   * JAR resource written by {@link HostedProcessor} listing the binary names of every
+   * {@code @Hosted} plugin in the archive, one per line.
+   */
+  String INDEX = "META-INF/hosted/plugins";
+}
@@ -0,0 +1,17 @@
+package io.github.garrettswininger.hosting;
+
+/**
+ * Bundles deploy several hosted JARs as a unit. A bundle is an ordinary JAR placed in the autoload
+ * directory whose manifest names its members with a space-separated {@link #MEMBERS} attribute.
+ * Each member is a hosted JAR stored as an entry at the root of the bundle.
+ *
+ * <p>Members are prepared together and their extensions go live in a single update, so Jenkins
+ * never sees part of a bundle. If any member fails, none of the bundle is deployed and whatever was
+ * deployed before stays in place. Replacing the bundle only swaps the members that changed.
+ */
+public final class HostedBundle {
+  /** Main manifest attribute listing the member JARs of a bundle. */
+  public static final String MEMBERS = "Hosted-Bundle-Members";
+
+  private HostedBundle() {}
+}
@@ -0,0 +1,133 @@
+package io.github.garrettswininger.hosting;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic;
+import javax.tools.StandardLocation;
+
+/**
+ * Build-time indexer for {@link Hosted} plugins. Writes {@link Hosted#INDEX} so the plugin host can
+ * load only the listed classes rather than every class in the JAR.
+ */
+public class HostedProcessor extends AbstractProcessor {
+  private final Set<String> plugins = new TreeSet<>();
+
+  // NOTE(garrett): Runs for every compilation, not just ones with @Hosted
+  // sources, so removing the last annotation from a class still reaches
+  // writeIndex and drops it. Nothing is claimed, other processors still run
+  @Override
+  public Set<String> getSupportedAnnotationTypes() {
+    return Set.of("*");
+  }
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    if (roundEnv.processingOver()) {
+      writeIndex();
+
+      return false;
+    }
+
+    final var elements = processingEnv.getElementUtils();
+    final var types = processingEnv.getTypeUtils();
+    final var pluginType =
+        types.erasure(elements.getTypeElement(DynamicPlugin.class.getCanonicalName()).asType());
+
+    for (final var element : roundEnv.getElementsAnnotatedWith(Hosted.class)) {
+      final var isConcreteClass =
+          element.getKind() == ElementKind.CLASS
+              && !element.getModifiers().contains(Modifier.ABSTRACT);
+
+      if (!isConcreteClass || !types.isSubtype(types.erasure(element.asType()), pluginType)) {
+        processingEnv
+            .getMessager()
+            .printMessage(
+                Diagnostic.Kind.ERROR,
+                String.format(
+                    "@Hosted may only be applied to concrete subclasses of %s",
+                    DynamicPlugin.class.getName()),
+                element);
+
+        continue;
+      }
+
+      plugins.add(elements.getBinaryName((TypeElement) element).toString());
+    }
+
+    return false;
+  }
+
+  private void writeIndex() {
+    final var filer = processingEnv.getFiler();
+    final var elements = processingEnv.getElementUtils();
+
+    var hadIndex = false;
+
+    // NOTE(garrett): Incremental builds only hand us the sources that
+    // changed, so carry over previously indexed plugins that still exist and
+    // are still annotated
+    try {
+      final var existing = filer.getResource(StandardLocation.CLASS_OUTPUT, "", Hosted.INDEX);
+
+      try (final var reader =
+          new BufferedReader(
+              new InputStreamReader(existing.openInputStream(), StandardCharsets.UTF_8))) {
+        hadIndex = true;
+        reader
+            .lines()
+            .map(String::trim)
+            .filter(line -> !line.isEmpty())
+            .filter(
+                line -> {
+                  final var type = elements.getTypeElement(line.replace('$', '.'));
+
+                  return type != null && type.getAnnotation(Hosted.class) != null;
+                })
+            .forEach(plugins::add);
+      }
+    } catch (IOException | IllegalArgumentException ex) {
+      // NOTE(garrett): No prior index, this is a clean build
+    }
+
+    // NOTE(garrett): An index whose last plugin lost its annotation is
+    // rewritten empty rather than left behind
+    if (plugins.isEmpty() && !hadIndex) {
+      return;
+    }
+
+    try {
+      final var index = filer.createResource(StandardLocation.CLASS_OUTPUT, "", Hosted.INDEX);
+
+      try (Writer writer =
+          new OutputStreamWriter(index.openOutputStream(), StandardCharsets.UTF_8)) {
+        for (final var plugin : plugins) {
+          writer.write(plugin);
+          writer.write('\n');
+        }
+      }
+    } catch (IOException ex) {
+      processingEnv
+          .getMessager()
+          .printMessage(
+              Diagnostic.Kind.ERROR,
+              String.format("Failed to write %s: %s", Hosted.INDEX, ex.getMessage()));
+    }
+  }
+}